@@ -0,0 +1,148 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.kohlschutter.jockel.core.util.PathReaderSupplier;
+
+/**
+ * Compares scanning the front matter of a large collection of posts (as needed for listings such as
+ * {@code site.posts}) with the header-only path of {@link LiquidHelper#parseFrontMatter} to the
+ * previous approach, which also parsed each body as a Liquid template.
+ *
+ * @author Christian Kohlschütter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CollectionScanBenchmark {
+  private static final String BODY_PARAGRAPH = "Some **Markdown** text about "
+      + "{{ page.title }}, with a [link]({{ '/about/' | relative_url }}).\n\n"
+      + "{% if page.tags %}Tagged: {% for tag in page.tags %}{{ tag }} {% endfor %}{% endif %}\n\n";
+
+  @Param({"1000", "4000"})
+  int posts;
+
+  @Param({"30000"})
+  int bodySize;
+
+  private Path dir;
+  private List<PathReaderSupplier> suppliers;
+  private LiquidHelper liquid;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("jockel-bench");
+
+    StringBuilder body = new StringBuilder(bodySize + BODY_PARAGRAPH.length());
+    while (body.length() < bodySize) {
+      body.append(BODY_PARAGRAPH);
+    }
+
+    suppliers = new ArrayList<>(posts);
+    for (int i = 0; i < posts; i++) {
+      String relativePath = "_posts/2024-01-01-post-" + i + ".md";
+      Path p = dir.resolve("post-" + i + ".md");
+      Files.writeString(p, "---\n" + FrontMatterScannerBenchmark.CORPUS[i
+          % FrontMatterScannerBenchmark.CORPUS.length] + "---\n" + body, StandardCharsets.UTF_8);
+      suppliers.add(PathReaderSupplier.withContentsOf("posts", relativePath, p,
+          StandardCharsets.UTF_8));
+    }
+
+    Map<String, Object> commonVariables = new HashMap<>();
+    commonVariables.put(LiquidVariables.SITE, new HashMap<>());
+    liquid = new LiquidHelper(null, commonVariables);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach((p) -> {
+        try {
+          Files.delete(p);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads only the front matter of each post.
+   *
+   * @param bh The blackhole.
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void headerOnly(Blackhole bh) throws IOException {
+    for (PathReaderSupplier sup : suppliers) {
+      bh.consume(liquid.parseFrontMatter(sup, null, LiquidVariables.PAGE, HashMap::new));
+    }
+  }
+
+  /**
+   * Reads the front matter of each post, and also parses the body as a Liquid template, like
+   * before.
+   *
+   * @param bh The blackhole.
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void headerAndBody(Blackhole bh) throws IOException {
+    for (PathReaderSupplier sup : suppliers) {
+      bh.consume(liquid.parseFrontMatter(sup, null, LiquidVariables.PAGE, HashMap::new));
+
+      StringWriter source = new StringWriter();
+      try (Reader in = sup.get()) {
+        in.transferTo(source);
+      }
+      String body = source.toString();
+      bh.consume(liquid.getParser().parse(body.substring(body.indexOf("\n---\n") + 5)));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.snakeyaml.engine.v2.api.Load;
+
+/**
+ * Compares parsing typical Jekyll front matter with {@link FrontMatterScanner} (falling back to
+ * snakeyaml, like {@link LiquidHelper} does) to parsing all of it with snakeyaml.
+ *
+ * @author Christian Kohlschütter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontMatterScannerBenchmark {
+  /**
+   * Front matter as found in posts and pages of typical Jekyll sites; the last entry needs the
+   * snakeyaml fallback.
+   */
+  static final String[] CORPUS = {
+      "layout: post\n" //
+          + "title: \"Welcome to Jekyll!\"\n" //
+          + "date: 2024-05-01 12:00:00 +0000\n" //
+          + "categories: jekyll update\n", //
+      "layout: post\n" //
+          + "title: Rendering Liquid templates faster\n" //
+          + "date: 2024-05-02 08:30:00 +0200\n" //
+          + "author: ck\n" //
+          + "tags: [liquid, performance, jvm]\n" //
+          + "comments: true\n" //
+          + "published: true\n", //
+      "layout: page\n" //
+          + "title: About\n" //
+          + "permalink: /about/\n" //
+          + "nav_order: 2\n", //
+      "layout: post\n" //
+          + "title: 'Release notes: version 2'\n" //
+          + "date: 2024-06-10\n" //
+          + "last_modified_at: 2024-06-12\n" //
+          + "excerpt_separator: <!--more-->\n" //
+          + "description: What changed in the second release\n" //
+          + "image: /assets/images/release-2.png\n" //
+          + "tags: [release, news]\n", //
+      "layout: default\n" //
+          + "title: Documentation\n" //
+          + "permalink: /docs/:title/\n" //
+          + "sitemap: false\n" //
+          + "redirect_from: /documentation/\n", //
+      "layout: post\n" //
+          + "title: A longer post\n" //
+          + "date: 2024-07-01 10:00:00 +0000\n" //
+          + "seo:\n" //
+          + "  type: BlogPosting\n" //
+          + "  date_modified: 2024-07-02\n" //
+          + "description: >\n" //
+          + "  A description that spans\n" //
+          + "  multiple lines\n", //
+  };
+
+  private List<List<String>> corpusLines;
+
+  @Setup
+  public void setup() {
+    corpusLines = new ArrayList<>();
+    for (String frontMatter : CORPUS) {
+      corpusLines.add(Arrays.asList(frontMatter.split("\n")));
+    }
+  }
+
+  /**
+   * Scans the corpus with {@link FrontMatterScanner}, using snakeyaml only where necessary.
+   *
+   * @param bh The blackhole.
+   */
+  @Benchmark
+  @OperationsPerInvocation(6)
+  public void scanner(Blackhole bh) {
+    for (int i = 0, n = CORPUS.length; i < n; i++) {
+      Map<String, Object> map = FrontMatterScanner.scan(corpusLines.get(i));
+      if (map == null) {
+        for (Object o : new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadAllFromString("---\n"
+            + CORPUS[i])) {
+          bh.consume(o);
+        }
+      } else {
+        bh.consume(map);
+      }
+    }
+  }
+
+  /**
+   * Parses the corpus with snakeyaml only, like before.
+   *
+   * @param bh The blackhole.
+   */
+  @Benchmark
+  @OperationsPerInvocation(6)
+  public void snakeyaml(Blackhole bh) {
+    for (List<String> lines : corpusLines) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("---\n");
+      for (String line : lines) {
+        sb.append(line);
+        sb.append('\n');
+      }
+      for (Object o : new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadAllFromString(sb
+          .toString())) {
+        bh.consume(o);
+      }
+    }
+  }
+}
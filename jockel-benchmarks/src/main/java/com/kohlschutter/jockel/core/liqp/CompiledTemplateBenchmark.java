@@ -0,0 +1,164 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kohlschutter.jockel.core.LiquidHelper;
+
+import liqp.Template;
+import liqp.TemplateParser;
+
+/**
+ * Compares rendering a layout-like template with liqp's interpreter to rendering its
+ * {@link CompiledTemplate}, both to an object and directly to an {@link Appendable}.
+ *
+ * @author Christian Kohlschütter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompiledTemplateBenchmark {
+  private static final String LAYOUT = "<!DOCTYPE html>\n" //
+      + "<html lang=\"{{ site.lang | default: 'en' }}\">\n" //
+      + "<head>\n" //
+      + "  <meta charset=\"utf-8\">\n" //
+      + "  <title>{% if page.title %}{{ page.title | escape }} | {% endif %}" //
+      + "{{ site.title }}</title>\n" //
+      + "</head>\n" //
+      + "<body>\n" //
+      + "  <nav>\n" //
+      + "  {% for item in site.navigation %}\n" //
+      + "    <a href=\"{{ item.url }}\"{% if item.url == page.url %} class=\"active\"{% endif %}>"
+      + "{{ item.title }}</a>\n" //
+      + "  {% endfor %}\n" //
+      + "  </nav>\n" //
+      + "  <main>\n" //
+      + "    <h1>{{ page.title }}</h1>\n" //
+      + "    {% unless page.hide_date %}<time>{{ page.date }}</time>{% endunless %}\n" //
+      + "    {{ content }}\n" //
+      + "  </main>\n" //
+      + "  <aside>\n" //
+      + "  {% for post in site.posts limit: 10 %}\n" //
+      + "    <li><a href=\"{{ post.url }}\">{{ post.title | upcase }}</a>"
+      + "{% if post.tags.size > 0 %} ({{ post.tags | join: ', ' }}){% endif %}</li>\n" //
+      + "  {% endfor %}\n" //
+      + "  </aside>\n" //
+      + "  <footer>&copy; {{ site.author }}</footer>\n" //
+      + "</body>\n" //
+      + "</html>\n";
+
+  private Template template;
+  private CompiledTemplate compiled;
+  private Map<String, Object> variables;
+
+  @Setup
+  public void setup() {
+    TemplateParser parser = LiquidHelper.newLiqpParser(null);
+    template = parser.parse(LAYOUT);
+    compiled = CompiledTemplate.compile(parser, parser.parse(LAYOUT));
+    if (compiled == null) {
+      throw new IllegalStateException("Template could not be compiled");
+    }
+
+    List<Map<String, Object>> navigation = new ArrayList<>();
+    for (String s : new String[] {"Home", "Blog", "About", "Contact"}) {
+      Map<String, Object> item = new HashMap<>();
+      item.put("title", s);
+      item.put("url", "/" + s.toLowerCase() + "/");
+      navigation.add(item);
+    }
+
+    List<Map<String, Object>> posts = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Map<String, Object> post = new HashMap<>();
+      post.put("title", "Post number " + i);
+      post.put("url", "/2024/01/" + i + "/post.html");
+      post.put("tags", i % 2 == 0 ? List.of("java", "liquid") : List.of());
+      posts.add(post);
+    }
+
+    Map<String, Object> site = new HashMap<>();
+    site.put("title", "Benchmark Site");
+    site.put("author", "Jockel");
+    site.put("navigation", navigation);
+    site.put("posts", posts);
+
+    Map<String, Object> page = new HashMap<>();
+    page.put("title", "About <us>");
+    page.put("url", "/about/");
+    page.put("date", "2024-05-01");
+
+    variables = new HashMap<>();
+    variables.put("site", site);
+    variables.put("page", page);
+    variables.put("content", "<p>" + "Lorem ipsum dolor sit amet. ".repeat(100) + "</p>");
+  }
+
+  /**
+   * Renders the (pooled, pre-parsed) template with liqp's interpreter.
+   *
+   * @return The output.
+   */
+  @Benchmark
+  public Object interpreted() {
+    return template.renderToObjectUnguarded(variables, null, true);
+  }
+
+  /**
+   * Renders the compiled template to an object.
+   *
+   * @return The output.
+   */
+  @Benchmark
+  public Object compiled() {
+    return compiled.render(variables, null, null);
+  }
+
+  /**
+   * Renders the compiled template directly to an {@link Appendable}.
+   *
+   * @return The output.
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public Object compiledToAppendable() throws IOException {
+    StringBuilder sb = new StringBuilder(8192);
+    compiled.renderTo(variables, null, sb, null);
+    return sb;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kohlschutter.jockel.core.LiquidHelper;
+
+import liqp.Template;
+import liqp.TemplateContext;
+import liqp.TemplateParser;
+
+/**
+ * Compares rendering {@code {% seo %}} via {@link SeoTag} (pooled template) with the previous
+ * approach of parsing "seo-template.html" upon every call.
+ *
+ * The site and page values memoized by {@link SeoTag} are bound to the generation of a live site
+ * object; with the plain site map used here, they are recomputed upon every call, so the difference
+ * shown is the cost of reading and parsing the template alone.
+ *
+ * @author Christian Kohlschütter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeoTagBenchmark {
+  private TemplateParser parser;
+  private String seoTemplateSource;
+  private Template seoTag;
+  private Map<String, Object> variables;
+
+  @Setup
+  public void setup() throws IOException {
+    parser = LiquidHelper.newLiqpParser(null);
+    try (InputStream in = SeoTag.class.getResourceAsStream("seo-template.html")) {
+      seoTemplateSource = new String(Objects.requireNonNull(in, "seo-template.html")
+          .readAllBytes(), StandardCharsets.UTF_8);
+    }
+    seoTag = parser.parse("{% seo %}");
+
+    Map<String, Object> site = new HashMap<>();
+    site.put("title", "The *Jockel* Blog");
+    site.put("tagline", "Static sites, **dynamically** served");
+    site.put("description", "Notes on [Markdown](https://commonmark.org/) and Liquid templates");
+    site.put("url", "https://example.com");
+    site.put("baseurl", "");
+    site.put("lang", "en-US");
+
+    Map<String, Object> page = new HashMap<>();
+    page.put("title", "Rendering _Liquid_ templates faster");
+    page.put("description", "How we avoid parsing the same template **again and again**");
+    page.put("url", "/2024/05/01/faster-liquid.html");
+    page.put("date", "2024-05-01 12:00:00 +0000");
+
+    variables = new HashMap<>();
+    variables.put("site", site);
+    variables.put("page", page);
+  }
+
+  /**
+   * Renders {@code {% seo %}} using the pooled template.
+   *
+   * @return The output.
+   */
+  @Benchmark
+  public Object seoTag() {
+    return seoTag.render(variables);
+  }
+
+  /**
+   * Renders the SEO template like before: parse "seo-template.html", then render it with a fresh,
+   * non-memoizing {@link SeoTag.SeoTagMap}.
+   *
+   * @return The output.
+   */
+  @Benchmark
+  public Object parseAndRender() {
+    TemplateContext context = new TemplateContext(parser, variables);
+    Map<String, Object> seoVariables = new HashMap<>(variables);
+    seoVariables.put("seo_tag", new SeoTag.SeoTagMap(context));
+    return parser.parse(seoTemplateSource).render(seoVariables);
+  }
+}
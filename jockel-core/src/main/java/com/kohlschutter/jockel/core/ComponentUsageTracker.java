@@ -0,0 +1,99 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.kohlschutter.dumbo.RenderState;
+import com.kohlschutter.dumbo.api.DumboComponent;
+
+/**
+ * Marks dumbo components as used in the {@link RenderState} of the current thread (e.g.,
+ * {@code PrismSupport} for pages with code blocks), and records these marks while a cached fragment
+ * is being rendered, so they can be applied again whenever the fragment is reused.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class ComponentUsageTracker {
+  private static final ThreadLocal<Set<Class<? extends DumboComponent>>> TL_MARKED =
+      new ThreadLocal<>();
+
+  private ComponentUsageTracker() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Marks the given component as used by the page currently being rendered in this thread.
+   *
+   * @param component The component.
+   */
+  public static void markUsed(Class<? extends DumboComponent> component) {
+    RenderState.get().setMarkedUsed(component);
+
+    Set<Class<? extends DumboComponent>> marked = TL_MARKED.get();
+    if (marked != null) {
+      marked.add(component);
+    }
+  }
+
+  /**
+   * Marks all given components as used by the page currently being rendered in this thread.
+   *
+   * @param components The components, as returned by {@link #endRecording(Set)}.
+   */
+  public static void markUsed(Set<Class<? extends DumboComponent>> components) {
+    for (Class<? extends DumboComponent> component : components) {
+      markUsed(component);
+    }
+  }
+
+  /**
+   * Starts recording the components marked as used in the current thread.
+   *
+   * @return The previously active set of recorded components (to be passed to
+   *         {@link #endRecording(Set)}), or {@code null}.
+   */
+  public static Set<Class<? extends DumboComponent>> beginRecording() {
+    Set<Class<? extends DumboComponent>> previous = TL_MARKED.get();
+    TL_MARKED.set(new HashSet<>());
+    return previous;
+  }
+
+  /**
+   * Stops recording the components marked as used in the current thread, and restores the previous
+   * state.
+   *
+   * @param previous The value returned by {@link #beginRecording()}.
+   * @return The components marked as used since the corresponding call to
+   *         {@link #beginRecording()}.
+   */
+  public static Set<Class<? extends DumboComponent>> endRecording(
+      Set<Class<? extends DumboComponent>> previous) {
+    Set<Class<? extends DumboComponent>> marked = TL_MARKED.get();
+    if (previous == null) {
+      TL_MARKED.remove();
+    } else {
+      TL_MARKED.set(previous);
+      if (marked != null) {
+        previous.addAll(marked);
+      }
+    }
+    return marked == null ? new HashSet<>() : marked;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Helps answering conditional GET requests ("If-None-Match", "If-Modified-Since") with
+ * "304 Not Modified".
+ *
+ * @author Christian Kohlschütter
+ */
+final class ConditionalGet {
+  private ConditionalGet() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Computes a weak entity tag.
+   *
+   * @param lastModified The last-modified time of the resource, in milliseconds since the epoch.
+   * @param discriminator Another value that changes whenever the resource changes (e.g., its
+   *          length, or the site generation).
+   * @return The entity tag.
+   */
+  static String etag(long lastModified, long discriminator) {
+    return "W/\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(discriminator) + "\"";
+  }
+
+  /**
+   * Sets the "ETag" and "Last-Modified" response headers.
+   *
+   * @param resp The response.
+   * @param etag The entity tag.
+   * @param lastModified The last-modified time, in milliseconds since the epoch.
+   */
+  static void setValidators(HttpServletResponse resp, String etag, long lastModified) {
+    resp.setHeader("ETag", etag);
+    if (lastModified > 0) {
+      resp.setDateHeader("Last-Modified", lastModified);
+    }
+  }
+
+  /**
+   * Sets the validators, and checks if the client already has the current version of the resource.
+   * If so, the response status is set to "304 Not Modified", and no body must be sent.
+   *
+   * @param req The request.
+   * @param resp The response.
+   * @param etag The entity tag.
+   * @param lastModified The last-modified time, in milliseconds since the epoch.
+   * @return {@code true} if "304 Not Modified" has been set.
+   */
+  static boolean checkNotModified(HttpServletRequest req, HttpServletResponse resp, String etag,
+      long lastModified) {
+    setValidators(resp, etag, lastModified);
+
+    String method = req.getMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      return false;
+    }
+
+    boolean notModified;
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      // If-None-Match takes precedence over If-Modified-Since
+      notModified = matches(ifNoneMatch, etag);
+    } else {
+      long ifModifiedSince;
+      try {
+        ifModifiedSince = req.getDateHeader("If-Modified-Since");
+      } catch (IllegalArgumentException e) {
+        ifModifiedSince = -1;
+      }
+      // HTTP dates have a resolution of one second
+      notModified = ifModifiedSince != -1 && lastModified > 0 && ifModifiedSince >= (lastModified
+          / 1000) * 1000;
+    }
+
+    if (notModified) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+    return notModified;
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    String opaque = stripWeak(etag);
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if ("*".equals(tag) || stripWeak(tag).equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,7 @@ import com.kohlschutter.dumbo.DumboServerImpl;
 import com.kohlschutter.dumbo.ServerApp;
 import com.kohlschutter.efesnitch.PathRegistration;
 import com.kohlschutter.efesnitch.PathWatcher;
+import com.kohlschutter.util.PathUtil;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletContext;
@@ -53,6 +55,7 @@ public final class CssFilter extends HttpFilter {
   private static final Logger LOG = LoggerFactory.getLogger(CssFilter.class);
   private static final AtomicLong FORCE_RELOAD = new AtomicLong(0);
   private static final Map<String, AtomicLong> LAST_FORCED_RELOADS = new HashMap<>();
+  private static final int MAX_PATH_DEPTH = 64;
 
   private transient ServletContext servletContext;
   private transient ServerApp app;
@@ -118,7 +121,8 @@ public final class CssFilter extends HttpFilter {
       throw new IOException(e);
     }
 
-    boolean reload = "true".equals(req.getParameter("reload"));
+    boolean explicitReload = "true".equals(req.getParameter("reload"));
+    boolean reload = explicitReload;
 
     long forceReloadTime = FORCE_RELOAD.get();
     if (forceReloadTime != 0) {
@@ -160,11 +164,50 @@ public final class CssFilter extends HttpFilter {
     Path generatedCssPath = app.getWebappWorkDir().toPath().resolve(pathInContext.replaceFirst("^/",
         ""));
 
+    // the validators are derived from the sources, so they can be checked before compiling
+    long lastModified = getSourcesLastModified(scssPath);
+    String etag = ConditionalGet.etag(lastModified, mdFileLength);
+    if (!explicitReload && Files.exists(generatedCssPath) && ConditionalGet.checkNotModified(req,
+        resp, etag, lastModified)) {
+      // the client's copy was compiled from the current sources
+      return true;
+    }
+
     sassCompiler.compile(pathInContext, scssPath, generatedCssPath);
+    ConditionalGet.setValidators(resp, etag, lastModified);
 
     try (BufferedReader br = Files.newBufferedReader(generatedCssPath)) {
       br.transferTo(resp.getWriter());
     }
     return true;
   }
+
+  /**
+   * Returns the latest last-modified time of everything the CSS is generated from: the .scss file,
+   * the partials in "_sass/" (any of which may be imported), and "_config.yml" (since the .scss
+   * file is rendered with Liquid first).
+   */
+  private long getSourcesLastModified(Path scssPath) throws IOException {
+    long lastModified = Files.getLastModifiedTime(scssPath).toMillis();
+
+    Path configPath = toPathIfPossible(app.getResource("markdown/_config.yml"));
+    if (configPath != null && Files.exists(configPath)) {
+      lastModified = Math.max(lastModified, Files.getLastModifiedTime(configPath).toMillis());
+    }
+
+    Path sassPath = toPathIfPossible(app.getResource("markdown/_sass"));
+    if (sassPath != null && Files.isDirectory(sassPath)) {
+      try (Stream<Path> stream = Files.find(sassPath, MAX_PATH_DEPTH, (p, attr) -> attr
+          .isRegularFile())) {
+        for (Path p : (Iterable<Path>) stream::iterator) {
+          lastModified = Math.max(lastModified, Files.getLastModifiedTime(p).toMillis());
+        }
+      }
+    }
+    return lastModified;
+  }
+
+  private static Path toPathIfPossible(URL url) {
+    return url == null ? null : PathUtil.toPathIfPossible(url);
+  }
 }
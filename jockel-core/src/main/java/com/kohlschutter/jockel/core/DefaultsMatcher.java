@@ -0,0 +1,240 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches pages against the {@code defaults} rules of the site configuration.
+ *
+ * Rules are indexed in a trie by the literal segments of their {@code scope.path}, and by their
+ * {@code scope.type}, so finding the rules for a page only needs to walk the page's path. Paths
+ * may contain glob wildcards ({@code *}, {@code **}, {@code ?}); such rules are indexed by their
+ * literal prefix, and matched using a compiled pattern. A glob that matches a directory applies to
+ * everything within it.
+ *
+ * Matching rules are applied in the order they appear in the configuration, so later rules
+ * override earlier ones.
+ *
+ * @author Christian Kohlschütter
+ */
+final class DefaultsMatcher {
+  private static final String ANY_TYPE = "";
+
+  private final List<Map<String, Map<String, Object>>> source;
+  private final Node root = new Node();
+
+  private static final class Rule {
+    private final int index;
+    private final Pattern glob;
+    private final Map<String, Object> values;
+
+    Rule(int index, Pattern glob, Map<String, Object> values) {
+      this.index = index;
+      this.glob = glob;
+      this.values = values;
+    }
+
+    boolean matchesGlob(String relativePath) {
+      if (glob.matcher(relativePath).matches()) {
+        return true;
+      }
+      // a matched directory includes everything within it
+      for (int slash = relativePath.lastIndexOf('/'); slash > 0; slash = relativePath.lastIndexOf(
+          '/', slash - 1)) {
+        if (glob.matcher(relativePath.substring(0, slash)).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Node {
+    private final Map<String, Node> children = new HashMap<>();
+    private final Map<String, List<Rule>> rulesByType = new HashMap<>();
+    private final Map<String, List<Rule>> globRulesByType = new HashMap<>();
+
+    void collect(String type, String relativePath, List<Rule> matches) {
+      addAll(rulesByType.get(ANY_TYPE), matches);
+      addAll(rulesByType.get(type), matches);
+      addGlobs(globRulesByType.get(ANY_TYPE), relativePath, matches);
+      addGlobs(globRulesByType.get(type), relativePath, matches);
+    }
+
+    private static void addAll(List<Rule> rules, List<Rule> matches) {
+      if (rules != null) {
+        matches.addAll(rules);
+      }
+    }
+
+    private static void addGlobs(List<Rule> rules, String relativePath, List<Rule> matches) {
+      if (rules == null || relativePath == null) {
+        return;
+      }
+      for (Rule rule : rules) {
+        if (rule.matchesGlob(relativePath)) {
+          matches.add(rule);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiles the given {@code defaults} rules.
+   *
+   * @param defaults The rules, as specified in the site configuration.
+   */
+  DefaultsMatcher(List<Map<String, Map<String, Object>>> defaults) {
+    this.source = defaults;
+
+    int index = 0;
+    for (Map<String, Map<String, Object>> en : defaults) {
+      int ruleIndex = index++;
+      Map<String, Object> values = en.get("values");
+      if (values == null) {
+        continue;
+      }
+      Map<String, Object> scope = en.get("scope");
+      Object scopeType = scope == null ? null : scope.get("type");
+      Object scopePath = scope == null ? null : scope.get("path");
+
+      String type = scopeType == null ? ANY_TYPE : String.valueOf(scopeType);
+      String path = scopePath == null ? "" : trimSlashes(String.valueOf(scopePath));
+
+      Node node = root;
+      Pattern glob = null;
+      for (String segment : path.split("/")) {
+        if (segment.isEmpty()) {
+          continue;
+        } else if (isGlob(segment)) {
+          glob = compileGlob(path);
+          break;
+        }
+        node = node.children.computeIfAbsent(segment, (k) -> new Node());
+      }
+
+      Rule rule = new Rule(ruleIndex, glob, values);
+      (glob == null ? node.rulesByType : node.globRulesByType).computeIfAbsent(type, (
+          k) -> new ArrayList<>()).add(rule);
+    }
+  }
+
+  /**
+   * Checks if this matcher was compiled from the given rules.
+   *
+   * @param defaults The rules.
+   * @return {@code true} if so.
+   */
+  boolean isCompiledFrom(List<Map<String, Map<String, Object>>> defaults) {
+    return source == defaults; // NOPMD.CompareObjectsWithEquals
+  }
+
+  /**
+   * Returns the values of all rules that apply to the given page, in configuration order.
+   *
+   * @param type The type of the page (e.g., "posts"), or {@code null}.
+   * @param relativePath The path of the page, relative to "markdown/", or {@code null}.
+   * @return The values to apply, in order.
+   */
+  List<Map<String, Object>> match(String type, String relativePath) {
+    List<Rule> matches = new ArrayList<>();
+    Node node = root;
+    node.collect(type, relativePath, matches);
+    if (relativePath != null) {
+      int start = 0;
+      int len = relativePath.length();
+      while (start < len) {
+        int slash = relativePath.indexOf('/', start);
+        int end = slash == -1 ? len : slash;
+        if (end > start) {
+          node = node.children.get(relativePath.substring(start, end));
+          if (node == null) {
+            break;
+          }
+          node.collect(type, relativePath, matches);
+        }
+        start = end + 1;
+      }
+    }
+    if (matches.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    matches.sort((a, b) -> Integer.compare(a.index, b.index));
+    List<Map<String, Object>> values = new ArrayList<>(matches.size());
+    for (Rule rule : matches) {
+      values.add(rule.values);
+    }
+    return values;
+  }
+
+  private static String trimSlashes(String path) {
+    int start = 0;
+    int end = path.length();
+    while (start < end && path.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    return path.substring(start, end);
+  }
+
+  private static boolean isGlob(String segment) {
+    return segment.indexOf('*') != -1 || segment.indexOf('?') != -1;
+  }
+
+  private static Pattern compileGlob(String glob) {
+    StringBuilder sb = new StringBuilder(glob.length() + 16);
+    int literalStart = 0;
+    for (int i = 0, n = glob.length(); i < n; i++) {
+      char c = glob.charAt(i);
+      if (c != '*' && c != '?') {
+        continue;
+      }
+      if (i > literalStart) {
+        sb.append(Pattern.quote(glob.substring(literalStart, i)));
+      }
+      if (c == '?') {
+        sb.append("[^/]");
+      } else if (i + 1 < n && glob.charAt(i + 1) == '*') {
+        // "**/" also matches no directory at all
+        if (i + 2 < n && glob.charAt(i + 2) == '/') {
+          sb.append("(?:.*/)?");
+          i++;
+        } else {
+          sb.append(".*");
+        }
+        i++;
+      } else {
+        sb.append("[^/]*");
+      }
+      literalStart = i + 1;
+    }
+    if (literalStart < glob.length()) {
+      sb.append(Pattern.quote(glob.substring(literalStart)));
+    }
+    return Pattern.compile(sb.toString());
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which rendered targets depend on which site resources.
+ *
+ * @author Christian Kohlschütter
+ * @see DependencyTracker
+ */
+final class DependencyGraph {
+  private final Map<String, Set<String>> targetToDependencies = new HashMap<>();
+  private final Map<String, Set<String>> dependencyToTargets = new HashMap<>();
+
+  /**
+   * Replaces the dependencies of the given target.
+   *
+   * @param target The target (e.g., the generated file).
+   * @param dependencies The dependencies, as recorded by {@link DependencyTracker}.
+   */
+  synchronized void update(String target, Set<String> dependencies) {
+    Set<String> previous = targetToDependencies.put(target, dependencies);
+    if (previous != null) {
+      for (String dep : previous) {
+        Set<String> targets = dependencyToTargets.get(dep);
+        if (targets != null) {
+          targets.remove(target);
+          if (targets.isEmpty()) {
+            dependencyToTargets.remove(dep);
+          }
+        }
+      }
+    }
+    for (String dep : dependencies) {
+      dependencyToTargets.computeIfAbsent(dep, (k) -> new HashSet<>()).add(target);
+    }
+  }
+
+  /**
+   * Returns the targets that are affected by a change of the given path.
+   *
+   * A change of a file also affects its parent directories (e.g., a collection that was iterated),
+   * and, for data files, the corresponding extension-less data key. A change of a directory affects
+   * everything within it.
+   *
+   * @param changedPath The changed path, relative to "markdown/".
+   * @param directory {@code true} if the path denotes a directory.
+   * @return The affected targets.
+   */
+  synchronized Set<String> getAffectedTargets(String changedPath, boolean directory) {
+    Set<String> affected = new HashSet<>();
+    if (directory) {
+      String prefix = changedPath.endsWith("/") ? changedPath : changedPath + "/";
+      for (Map.Entry<String, Set<String>> en : dependencyToTargets.entrySet()) {
+        String dep = en.getKey();
+        if (dep.startsWith(prefix) || prefix.startsWith(dep + "/")) {
+          affected.addAll(en.getValue());
+        }
+      }
+      return affected;
+    }
+
+    addTargets(changedPath, affected);
+
+    int dot = changedPath.lastIndexOf('.');
+    if (dot > changedPath.lastIndexOf('/')) {
+      // "_data/navigation.yml" -> "_data/navigation"
+      addTargets(changedPath.substring(0, dot), affected);
+    }
+
+    for (int slash = changedPath.lastIndexOf('/'); slash > 0; slash = changedPath.lastIndexOf('/',
+        slash - 1)) {
+      addTargets(changedPath.substring(0, slash), affected);
+    }
+
+    return affected;
+  }
+
+  /**
+   * Returns the targets that depend on exactly the given dependency.
+   *
+   * @param dependency The dependency.
+   * @return The targets.
+   */
+  synchronized Set<String> getTargets(String dependency) {
+    return new HashSet<>(dependencyToTargets.getOrDefault(dependency, Collections.emptySet()));
+  }
+
+  private void addTargets(String dependency, Set<String> affected) {
+    affected.addAll(dependencyToTargets.getOrDefault(dependency, Collections.emptySet()));
+  }
+
+  /**
+   * Returns the dependencies of the given target, as recorded during its last rendering.
+   *
+   * @param target The target (e.g., the generated file).
+   * @return The dependencies, or {@code null} if the target has not been rendered yet.
+   */
+  synchronized Set<String> getDependencies(String target) {
+    Set<String> deps = targetToDependencies.get(target);
+    return deps == null ? null : new HashSet<>(deps);
+  }
+
+  synchronized int size() {
+    return targetToDependencies.size();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records which site resources (layouts, includes, data files, collections) were read while
+ * rendering a page in the current thread.
+ *
+ * Dependencies are identified by their path relative to the "markdown/" directory, e.g.,
+ * "_layouts/default.html", "_includes/footer.html", "_data/navigation" (without extension), or
+ * "_posts" (for a collection that was iterated), or "_posts/" (for the order of the items in a
+ * collection, e.g., when accessing "next" or "previous"; see
+ * {@link com.kohlschutter.jockel.core.site.SiteCollection#getOrderDependency()}).
+ *
+ * @author Christian Kohlschütter
+ */
+public final class DependencyTracker {
+  private static final ThreadLocal<Set<String>> TL_DEPENDENCIES = new ThreadLocal<>();
+
+  private DependencyTracker() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Records a dependency for the page currently being rendered in this thread, if any.
+   *
+   * @param markdownRelativePath The path of the dependency, relative to "markdown/".
+   */
+  public static void record(String markdownRelativePath) {
+    Set<String> deps = TL_DEPENDENCIES.get();
+    if (deps != null) {
+      deps.add(markdownRelativePath);
+    }
+  }
+
+  /**
+   * Starts recording dependencies for the current thread.
+   *
+   * @return The previously active set of recorded dependencies (to be passed to
+   *         {@link #endRecording(Set)}), or {@code null}.
+   */
+  public static Set<String> beginRecording() {
+    Set<String> previous = TL_DEPENDENCIES.get();
+    TL_DEPENDENCIES.set(new HashSet<>());
+    return previous;
+  }
+
+  /**
+   * Stops recording dependencies for the current thread, and restores the previous state.
+   *
+   * @param previous The value returned by {@link #beginRecording()}.
+   * @return The dependencies recorded since the corresponding call to {@link #beginRecording()}.
+   */
+  public static Set<String> endRecording(Set<String> previous) {
+    Set<String> deps = TL_DEPENDENCIES.get();
+    if (previous == null) {
+      TL_DEPENDENCIES.remove();
+    } else {
+      TL_DEPENDENCIES.set(previous);
+      if (deps != null) {
+        previous.addAll(deps);
+      }
+    }
+    return deps == null ? new HashSet<>() : deps;
+  }
+}
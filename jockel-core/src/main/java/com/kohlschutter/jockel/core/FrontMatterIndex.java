@@ -0,0 +1,266 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kohlschutter.jockel.core.site.CustomSiteVariables;
+import com.kohlschutter.jockel.core.site.PermalinkParser;
+import com.kohlschutter.jockel.core.site.SiteCollection;
+import com.kohlschutter.jockel.core.site.SiteObject;
+
+/**
+ * An index of the front matter fields of all collection items that are needed to generate the site
+ * (archives, permalinks, site.tags/site.categories).
+ *
+ * The index is built once per site configuration, parsing the front matter of all items in
+ * parallel. Page bodies are not rendered. Since the front matter is parsed into the collection items
+ * themselves, sorting a collection ("sort_by") no longer needs to parse each item sequentially. Each
+ * collection is then sorted before any page is rendered, and indexed in sorted order.
+ *
+ * @author Christian Kohlschütter
+ */
+final class FrontMatterIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(FrontMatterIndex.class);
+
+  private final Map<String, List<Entry>> entries;
+
+  /**
+   * The indexed front matter of a single collection item.
+   */
+  static final class Entry {
+    private final String collectionId;
+    private final Map<String, Object> item;
+    private final String relativePath;
+    private final String permalink;
+    private final String layout;
+    private final String title;
+    private final LocalDate date;
+    private final Collection<String> tags;
+    private final Collection<String> categories;
+
+    @SuppressWarnings("unchecked")
+    private Entry(String collectionId, Map<String, Object> item) {
+      this.collectionId = collectionId;
+      this.item = item;
+      this.relativePath = (String) item.get(CustomSiteVariables.DUMBO_RELATIVE_PATH);
+
+      String permalinkTemplate = (String) item.get(LiquidVariables.PAGE_PERMALINK);
+      String parsedPermalink;
+      if (permalinkTemplate == null || permalinkTemplate.isBlank()) {
+        parsedPermalink = null;
+      } else {
+        try {
+          parsedPermalink = PermalinkParser.parsePermalink(permalinkTemplate, item);
+        } catch (ParseException | RuntimeException e) {
+          LOG.warn("Cannot parse permalink of {}: {}", relativePath, permalinkTemplate, e);
+          parsedPermalink = null;
+        }
+      }
+      this.permalink = parsedPermalink;
+
+      this.layout = toStringOrNull(item.get(LiquidVariables.PAGE_LAYOUT));
+      this.title = toStringOrNull(item.get(LiquidVariables.PAGE_TITLE));
+      this.date = PermalinkParser.getDate(item);
+      this.tags = (Collection<String>) toCollection(item.get(LiquidVariables.PAGE_TAGS));
+      this.categories = (Collection<String>) toCollection(item.get(
+          LiquidVariables.PAGE_CATEGORIES));
+    }
+
+    String getCollectionId() {
+      return collectionId;
+    }
+
+    /**
+     * Returns the collection item itself (i.e., the page variables).
+     *
+     * @return The item.
+     */
+    Map<String, Object> getItem() {
+      return item;
+    }
+
+    String getRelativePath() {
+      return relativePath;
+    }
+
+    /**
+     * Returns the parsed permalink.
+     *
+     * @return The permalink, or {@code null} if the item has none.
+     */
+    String getPermalink() {
+      return permalink;
+    }
+
+    String getLayout() {
+      return layout;
+    }
+
+    String getTitle() {
+      return title;
+    }
+
+    /**
+     * Returns the date of the item (from its front matter or filename).
+     *
+     * @return The date, or {@code null} if unknown.
+     */
+    LocalDate getDate() {
+      return date;
+    }
+
+    Collection<String> getTags() {
+      return tags;
+    }
+
+    Collection<String> getCategories() {
+      return categories;
+    }
+
+    private boolean hasSameFrontMatter(Entry other) {
+      return Objects.equals(relativePath, other.relativePath) && Objects.equals(permalink,
+          other.permalink) && Objects.equals(layout, other.layout) && Objects.equals(title,
+              other.title) && Objects.equals(date, other.date) && Objects.equals(tags, other.tags)
+          && Objects.equals(categories, other.categories);
+    }
+  }
+
+  private FrontMatterIndex(Map<String, List<Entry>> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Builds the index for all collections of the given site.
+   *
+   * @param siteObject The site object.
+   * @param executor The executor used to parse the front matter in parallel.
+   * @return The index.
+   * @throws IOException on error.
+   */
+  @SuppressWarnings("unchecked")
+  static FrontMatterIndex build(SiteObject siteObject, GeneratorExecutor executor)
+      throws IOException {
+    Map<String, Map<Map<String, Object>, Entry>> entriesByItem = new LinkedHashMap<>();
+    for (String collectionId : ((Map<String, Object>) siteObject.get(
+        LiquidVariables.SITE_COLLECTIONS)).keySet()) {
+      SiteCollection sc = (SiteCollection) siteObject.get(collectionId);
+      Map<Map<String, Object>, Entry> byItem = Collections.synchronizedMap(
+          new IdentityHashMap<>());
+      entriesByItem.put(collectionId, byItem);
+      for (Map<String, Object> item : sc.getItems()) {
+        executor.submit(() -> {
+          byItem.put(item, new Entry(collectionId, item));
+        });
+      }
+    }
+    executor.awaitCompletion();
+
+    Map<String, List<Entry>> entries = new LinkedHashMap<>();
+    int count = 0;
+    for (Map.Entry<String, Map<Map<String, Object>, Entry>> en : entriesByItem.entrySet()) {
+      // sort now that all front matter has been parsed, and before any page is rendered
+      SiteCollection sc = (SiteCollection) siteObject.get(en.getKey());
+      sc.sort();
+
+      List<Entry> list = new ArrayList<>(en.getValue().size());
+      for (Map<String, Object> item : sc.getItems()) {
+        Entry entry = en.getValue().get(item);
+        list.add(entry == null ? new Entry(en.getKey(), item) : entry);
+      }
+      entries.put(en.getKey(), Collections.unmodifiableList(list));
+      count += list.size();
+    }
+    LOG.info("Indexed front matter of {} collection items", count);
+
+    return new FrontMatterIndex(entries);
+  }
+
+  /**
+   * Returns the indexed items of the given collection, in the order they appear in the (sorted)
+   * collection.
+   *
+   * @param collectionId The collection ID.
+   * @return The entries (empty if the collection is unknown).
+   */
+  List<Entry> getEntries(String collectionId) {
+    return entries.getOrDefault(collectionId, Collections.emptyList());
+  }
+
+  /**
+   * Checks if the given index contains the same items, with the same indexed front matter, in the
+   * same order as this one.
+   *
+   * @param other The other index.
+   * @return {@code true} if so; {@code false} if archives, permalinks, etc. need to be recomputed.
+   */
+  boolean hasSameFrontMatter(FrontMatterIndex other) {
+    if (!entries.keySet().equals(other.entries.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, List<Entry>> en : entries.entrySet()) {
+      List<Entry> list = en.getValue();
+      List<Entry> otherList = other.entries.get(en.getKey());
+      if (list.size() != otherList.size()) {
+        return false;
+      }
+      for (int i = 0, n = list.size(); i < n; i++) {
+        if (!list.get(i).hasSameFrontMatter(otherList.get(i))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static String toStringOrNull(Object obj) {
+    return obj == null ? null : obj.toString();
+  }
+
+  private static Collection<?> toCollection(Object obj) {
+    if (obj == null) {
+      return Collections.emptyList();
+    } else if (obj instanceof String) {
+      if (((String) obj).isEmpty()) {
+        return Collections.emptyList();
+      } else {
+        return Collections.singleton(obj);
+      }
+    } else if (obj instanceof Object[]) {
+      return Arrays.asList((Object[]) obj);
+    } else if (obj instanceof Collection) {
+      return new ArrayList<>((Collection<?>) obj);
+    } else {
+      return Collections.singleton(obj.toString());
+    }
+  }
+}
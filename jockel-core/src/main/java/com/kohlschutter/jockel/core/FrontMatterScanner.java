@@ -0,0 +1,268 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A fast scanner for the common subset of YAML front matter: flat {@code key: value} pairs,
+ * quoted strings, and flow sequences of plain scalars (e.g., {@code tags: [a, b]}).
+ *
+ * Scalars are resolved just like snakeyaml-engine does with
+ * {@link YAMLSupport#DEFAULT_LOAD_SETTINGS} (i.e., the JSON schema; dates remain strings). For
+ * anything beyond that subset (nested structures, block scalars, anchors, escapes, comments after
+ * values, floats, etc.), the scanner gives up, and the caller is expected to fall back to
+ * snakeyaml.
+ *
+ * @author Christian Kohlschütter
+ */
+final class FrontMatterScanner {
+  private static final Pattern INT = Pattern.compile("^-?(0|[1-9][0-9]*)$");
+  private static final Pattern FLOAT = Pattern.compile(
+      "^(-?(0|[1-9][0-9]*)(\\.[0-9]*)?([eE][-+]?[0-9]+)?)|(-?\\.inf)|(\\.nan)$");
+
+  private FrontMatterScanner() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Scans the given front matter lines (excluding the "---" delimiter lines).
+   *
+   * @param lines The lines.
+   * @return The front matter variables, or {@code null} if the lines are not in the supported
+   *         subset, and need to be parsed by snakeyaml instead.
+   */
+  static Map<String, Object> scan(List<String> lines) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (String line : lines) {
+      int len = line.length();
+      if (len == 0 || line.charAt(0) == '#') {
+        continue;
+      }
+      if (line.isBlank()) {
+        if (line.indexOf('\t') != -1) {
+          return null;
+        }
+        continue;
+      }
+
+      int colon = scanKey(line);
+      if (colon == -1) {
+        return null;
+      }
+      String key = line.substring(0, colon);
+
+      Object value;
+      if (colon + 1 == len) {
+        value = null;
+      } else if (line.charAt(colon + 1) != ' ') {
+        return null;
+      } else {
+        String v = line.substring(colon + 2).strip();
+        if (v.isEmpty()) {
+          value = null;
+        } else {
+          value = scanValue(v);
+          if (value == Unsupported.INSTANCE) { // NOPMD.CompareObjectsWithEquals
+            return null;
+          }
+        }
+      }
+      // like snakeyaml, the last of duplicate keys wins, and is placed last
+      map.remove(key);
+      map.put(key, value);
+    }
+    return map;
+  }
+
+  /**
+   * Marks a value that cannot be handled by this scanner.
+   */
+  private enum Unsupported {
+    INSTANCE
+  }
+
+  private static int scanKey(String line) {
+    char c = line.charAt(0);
+    if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_')) {
+      return -1;
+    }
+    for (int i = 1, n = line.length(); i < n; i++) {
+      c = line.charAt(i);
+      if (c == ':') {
+        String key = line.substring(0, i);
+        if ("true".equals(key) || "false".equals(key) || "null".equals(key)) {
+          return -1;
+        }
+        return i;
+      } else if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+          || c == '_' || c == '-' || c == '.')) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private static Object scanValue(String v) {
+    if (!isPrintable(v)) {
+      return Unsupported.INSTANCE;
+    }
+    int last = v.length() - 1;
+    switch (v.charAt(0)) {
+      case '"':
+        if (last == 0 || v.charAt(last) != '"' || v.indexOf('"', 1) != last || v.indexOf(
+            '\\') != -1) {
+          return Unsupported.INSTANCE;
+        }
+        return v.substring(1, last);
+      case '\'':
+        if (last == 0 || v.charAt(last) != '\'' || v.indexOf('\'', 1) != last) {
+          return Unsupported.INSTANCE;
+        }
+        return v.substring(1, last);
+      case '[':
+        if (v.charAt(last) != ']') {
+          return Unsupported.INSTANCE;
+        }
+        return scanFlowSequence(v.substring(1, last));
+      default:
+        if (isIndicator(v.charAt(0)) && !INT.matcher(v).matches()) {
+          return Unsupported.INSTANCE;
+        }
+        if (v.indexOf('#') != -1 || v.indexOf(": ") != -1 || v.charAt(last) == ':') {
+          return Unsupported.INSTANCE;
+        }
+        return resolvePlain(v);
+    }
+  }
+
+  private static Object scanFlowSequence(String inner) {
+    if (inner.isBlank()) {
+      return inner.indexOf('\t') == -1 ? new ArrayList<>() : Unsupported.INSTANCE;
+    }
+    String[] items = inner.split(",", -1);
+    List<Object> list = new ArrayList<>(items.length);
+    for (String item : items) {
+      String s = item.strip();
+      if (s.isEmpty() || (isIndicator(s.charAt(0)) && !INT.matcher(s).matches())) {
+        return Unsupported.INSTANCE;
+      }
+      for (int i = 0, n = s.length(); i < n; i++) {
+        switch (s.charAt(i)) {
+          case ':':
+          case '#':
+          case '[':
+          case ']':
+          case '{':
+          case '}':
+          case '"':
+          case '\'':
+          case '\t':
+            return Unsupported.INSTANCE;
+          default:
+            break;
+        }
+      }
+      Object value = resolvePlain(s);
+      if (value == Unsupported.INSTANCE) { // NOPMD.CompareObjectsWithEquals
+        return Unsupported.INSTANCE;
+      }
+      list.add(value);
+    }
+    return list;
+  }
+
+  private static Object resolvePlain(String v) {
+    switch (v) {
+      case "null":
+        return null;
+      case "true":
+        return Boolean.TRUE;
+      case "false":
+        return Boolean.FALSE;
+      default:
+        break;
+    }
+    char c = v.charAt(0);
+    if ((c >= '0' && c <= '9') || c == '-' || c == '.') {
+      if (INT.matcher(v).matches()) {
+        return toIntNumber(v);
+      } else if (FLOAT.matcher(v).matches()) {
+        return Unsupported.INSTANCE;
+      }
+    }
+    return v;
+  }
+
+  private static Number toIntNumber(String v) {
+    try {
+      return Integer.valueOf(v);
+    } catch (NumberFormatException e) {
+      try {
+        return Long.valueOf(v);
+      } catch (NumberFormatException e2) {
+        return new BigInteger(v);
+      }
+    }
+  }
+
+  private static boolean isIndicator(char c) {
+    switch (c) {
+      case '-':
+      case '?':
+      case ':':
+      case ',':
+      case '[':
+      case ']':
+      case '{':
+      case '}':
+      case '#':
+      case '&':
+      case '*':
+      case '!':
+      case '|':
+      case '>':
+      case '\'':
+      case '"':
+      case '%':
+      case '@':
+      case '`':
+      case '$':
+      case '~':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isPrintable(String v) {
+    for (int i = 0, n = v.length(); i < n; i++) {
+      char c = v.charAt(i);
+      if (c < 0x20 || (c >= 0x7F && c <= 0x9F) || c == 0xFEFF || c >= 0xFFFE || Character
+          .isSurrogate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
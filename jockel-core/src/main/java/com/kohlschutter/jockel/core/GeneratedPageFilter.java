@@ -0,0 +1,96 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import com.kohlschutter.dumbo.DumboServerImpl;
+import com.kohlschutter.dumbo.ServerApp;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Renders generated pages (e.g., posts) upon first request, while the site is still being generated
+ * in the background, and sets the "Cache-Control" header configured for the requested page.
+ *
+ * The servlet context attribute {@link #READY_ATTRIBUTE} holds a {@link BooleanSupplier} that
+ * indicates whether all pages have been generated. If generating the site in the background failed,
+ * the site never becomes ready, and pages continue to be rendered upon request; the error is
+ * available via {@link #FAILURE_ATTRIBUTE}.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class GeneratedPageFilter extends HttpFilter {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Servlet context attribute holding a {@link BooleanSupplier} that returns {@code true} once all
+   * pages have been generated.
+   */
+  public static final String READY_ATTRIBUTE = "com.kohlschutter.jockel.ready";
+
+  /**
+   * Servlet context attribute holding a {@link Supplier} that returns the error that caused
+   * generating the site in the background to fail, or {@code null}.
+   */
+  public static final String FAILURE_ATTRIBUTE = "com.kohlschutter.jockel.failure";
+
+  private transient MarkdownSupportImpl mdSupport;
+
+  @Override
+  public void init() throws ServletException {
+    ServerApp app = Objects.requireNonNull(DumboServerImpl.getServerApp(getServletContext()));
+
+    try {
+      mdSupport = app.getImplementationByIdentity(MarkdownSupportImpl.COMPONENT_IDENTITY,
+          () -> new MarkdownSupportImpl(app));
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+
+    getServletContext().setAttribute(READY_ATTRIBUTE, (BooleanSupplier) mdSupport::isReady);
+    getServletContext().setAttribute(FAILURE_ATTRIBUTE,
+        (Supplier<Exception>) mdSupport::getBackgroundRenderingFailure);
+  }
+
+  @Override
+  protected void doFilter(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+      throws ServletException, IOException {
+    String pathInContext = req.getServletPath();
+    if (req.getPathInfo() != null) {
+      pathInContext += req.getPathInfo();
+    }
+    if (!mdSupport.isReady()) {
+      mdSupport.renderIfNecessary(pathInContext);
+    }
+
+    String cacheControl = mdSupport.getCacheControl(pathInContext);
+    if (cacheControl != null) {
+      resp.setHeader("Cache-Control", cacheControl);
+    }
+
+    chain.doFilter(req, resp);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs site generation tasks, either sequentially (parallelism 1), or on a pool of worker threads,
+ * and keeps track of wall-clock and CPU time.
+ *
+ * @author Christian Kohlschütter
+ */
+final class GeneratorExecutor implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(GeneratorExecutor.class);
+  private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  private final int parallelism;
+  private final boolean virtualThreads;
+  private final ExecutorService executor;
+  private final List<Future<?>> futures = new ArrayList<>();
+  private final LongAdder cpuTimeNanos = new LongAdder();
+  private final LongAdder numTasks = new LongAdder();
+  private final long startTime = System.nanoTime();
+
+  /**
+   * A task that may throw an {@link IOException}.
+   */
+  @FunctionalInterface
+  interface IORunnable {
+    void run() throws IOException;
+  }
+
+  /**
+   * Creates a new {@link GeneratorExecutor}, optionally running each task in its own virtual
+   * thread.
+   *
+   * @param parallelism The number of worker threads; 1 means "run sequentially in the calling
+   *          thread", 0 or a negative value means "use the number of available processors".
+   *          Ignored when virtual threads are used.
+   * @param threadPriority The priority of the worker threads (ignored for virtual threads).
+   * @param virtualThreads If {@code true}, use virtual threads if supported by the runtime (Java 21
+   *          or newer).
+   */
+  GeneratorExecutor(int parallelism, int threadPriority, boolean virtualThreads) {
+    if (virtualThreads && !ThreadSupport.isVirtualThreadSupported()) {
+      if (Runtime.version().feature() >= 21) {
+        LOG.warn("jockel.virtual_threads is enabled, but this build of jockel lacks Java 21 support"
+            + " (built without the multirelease-java21 profile); using platform threads");
+      } else {
+        LOG.warn("Virtual threads are not supported by this runtime; using platform threads");
+      }
+      virtualThreads = false;
+    }
+    if (parallelism <= 0 || virtualThreads) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+    }
+    this.parallelism = parallelism;
+    this.virtualThreads = virtualThreads;
+    this.executor = (parallelism == 1 && !virtualThreads) ? null : ThreadSupport.newExecutor(
+        "jockel-generator-" + POOL_COUNT.incrementAndGet() + "-", parallelism, threadPriority,
+        virtualThreads);
+  }
+
+  /**
+   * Submits a task. In sequential mode, the task is run immediately.
+   *
+   * @param task The task.
+   * @throws IOException on error (sequential mode only).
+   */
+  void submit(IORunnable task) throws IOException {
+    if (executor == null) {
+      runMeasured(task);
+    } else {
+      Future<?> f = executor.submit(() -> {
+        runMeasured(task);
+        return null;
+      });
+      synchronized (futures) {
+        futures.add(f);
+      }
+    }
+  }
+
+  private void runMeasured(IORunnable task) throws IOException {
+    long cpuStart = currentThreadCpuTime();
+    try {
+      task.run();
+    } finally {
+      if (cpuStart >= 0) {
+        long cpuEnd = currentThreadCpuTime();
+        if (cpuEnd >= 0) {
+          cpuTimeNanos.add(cpuEnd - cpuStart);
+        }
+      }
+      numTasks.increment();
+    }
+  }
+
+  private static long currentThreadCpuTime() {
+    if (!THREAD_MX.isCurrentThreadCpuTimeSupported()) {
+      return -1;
+    }
+    try {
+      // may return -1 for virtual threads
+      return THREAD_MX.getCurrentThreadCpuTime();
+    } catch (UnsupportedOperationException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Waits until all submitted tasks have completed.
+   *
+   * @throws IOException if any of the tasks failed; additional failures are added as suppressed
+   *           exceptions.
+   */
+  void awaitCompletion() throws IOException {
+    List<Future<?>> pending;
+    synchronized (futures) {
+      pending = new ArrayList<>(futures);
+      futures.clear();
+    }
+
+    IOException exc = null;
+    for (Future<?> f : pending) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException iioe = new InterruptedIOException("Interrupted");
+        iioe.initCause(e);
+        throw iioe;
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause; // NOPMD.PreserveStackTrace
+        } else if (cause instanceof Error) {
+          throw (Error) cause; // NOPMD.PreserveStackTrace
+        }
+        if (exc == null) {
+          exc = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        } else {
+          exc.addSuppressed(cause);
+        }
+      }
+    }
+    if (exc != null) {
+      throw exc;
+    }
+  }
+
+  /**
+   * Logs the number of tasks, the elapsed wall-clock time and the summed CPU time of all tasks.
+   */
+  void logStatistics() {
+    if (!LOG.isInfoEnabled()) {
+      return;
+    }
+    long wallMillis = (System.nanoTime() - startTime) / 1_000_000;
+    long cpuMillis = cpuTimeNanos.sum() / 1_000_000;
+    if (virtualThreads) {
+      LOG.info("Generated {} pages in {} ms wall-clock time (virtual threads)", numTasks.sum(),
+          wallMillis);
+    } else {
+      LOG.info("Generated {} pages in {} ms wall-clock time, {} ms CPU time ({} thread(s))",
+          numTasks.sum(), wallMillis, cpuMillis, parallelism);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,507 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kohlschutter.efesnitch.PathWatcher;
+import com.kohlschutter.jockel.core.liqp.SiteConstantFolder;
+import com.kohlschutter.jockel.core.liqp.TemplatePool;
+import com.kohlschutter.util.PathUtil;
+
+import liqp.Template;
+import liqp.TemplateParser;
+
+/**
+ * A bounded (least-recently-used) cache of parsed layouts: their front matter and their Liquid
+ * templates.
+ *
+ * Entries are validated against the last-modified time of the layout file, and invalidated when
+ * the file changes (via {@link PathWatcher}).
+ *
+ * liqp {@link Template}s must not be rendered concurrently, so each cached layout keeps a
+ * {@link TemplatePool}.
+ *
+ * In addition, the cache keeps precomputed layout {@link Chain}s, so rendering a page through
+ * nested layouts does not need to discover the chain (and check for cycles) every time.
+ *
+ * Optionally, expressions that only depend on the site configuration are folded into literal text
+ * when a layout is loaded (see {@link SiteConstantFolder}). Such layouts are reloaded once the
+ * configuration has changed.
+ *
+ * @author Christian Kohlschütter
+ */
+final class LayoutCache {
+  private static final Logger LOG = LoggerFactory.getLogger(LayoutCache.class);
+  static final int DEFAULT_MAX_SIZE = 256;
+
+  private final TemplateParser parser;
+  private final FrontMatterParser frontMatterParser;
+  // not synchronized: loading layouts does I/O, which would pin virtual threads on Java 21
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Layout> layouts = new LinkedHashMap<>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Layout> eldest) {
+      return size() > maxSize;
+    }
+  };
+  private final Map<String, Chain> chains = new ConcurrentHashMap<>();
+  private final Set<Path> watchedPaths = Collections.synchronizedSet(new HashSet<>());
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private volatile int maxSize = DEFAULT_MAX_SIZE;
+  private volatile Supplier<Map<String, Object>> siteConfigSupplier;
+
+  /**
+   * Parses the front matter of a layout.
+   */
+  @FunctionalInterface
+  interface FrontMatterParser {
+    /**
+     * Parses the front matter from the given reader (positioned at the first "---" line), leaving
+     * the reader positioned after the closing "---" line.
+     *
+     * @param in The reader.
+     * @param frontMatter The map to put the front matter variables into.
+     * @throws IOException on error.
+     */
+    void parse(BufferedReader in, Map<String, Object> frontMatter) throws IOException;
+  }
+
+  /**
+   * A parsed layout.
+   */
+  static final class Layout {
+    private final long lastModified;
+    private final Path path;
+    private final Map<String, Object> frontMatter;
+    private final TemplatePool templates;
+    private final Map<String, Object> siteConfig;
+
+    private Layout(TemplateParser parser, Path path, long lastModified,
+        Map<String, Object> frontMatter, String source, Map<String, Object> siteConfig) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.frontMatter = Collections.unmodifiableMap(frontMatter);
+      this.siteConfig = siteConfig;
+      this.templates = new TemplatePool(parser, siteConfig == null ? source : SiteConstantFolder
+          .fold(parser, source, siteConfig));
+    }
+
+    /**
+     * Returns the front matter variables of the layout.
+     *
+     * @return The (unmodifiable) front matter.
+     */
+    Map<String, Object> getFrontMatter() {
+      return frontMatter;
+    }
+
+    /**
+     * Renders the layout template.
+     *
+     * @param variables The variables.
+     * @param errors If not {@code null}, receives the errors reported during rendering.
+     * @return The rendered object.
+     */
+    Object render(Map<String, Object> variables, List<Exception> errors) {
+      return templates.render(variables, null, errors);
+    }
+
+    /**
+     * Renders the layout template directly to the given {@link Appendable}.
+     *
+     * @param variables The variables.
+     * @param errors If not {@code null}, receives the errors reported during rendering.
+     * @param out The target.
+     * @throws IOException on error.
+     * @see TemplatePool#renderTo(Map, liqp.TemplateContext, Appendable, List)
+     */
+    void renderTo(Map<String, Object> variables, List<Exception> errors, Appendable out)
+        throws IOException {
+      templates.renderTo(variables, null, out, errors);
+    }
+
+    private boolean isUpToDate(Map<String, Object> currentSiteConfig) {
+      if (siteConfig != currentSiteConfig) {
+        // folded for a different site configuration (or folding was toggled)
+        return false;
+      }
+      if (path == null) {
+        // e.g., a resource in a jar file
+        return true;
+      }
+      try {
+        return Files.getLastModifiedTime(path).toMillis() == lastModified;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * A layout along with all its ancestors (the layout's layout, and so on), innermost first.
+   *
+   * For each level, the chain also holds the merged front matter that is visible as the "layout"
+   * variable while rendering that level: the front matter of all previous levels, overridden by
+   * that of the current level.
+   */
+  static final class Chain {
+    private final List<String> layoutIds;
+    private final List<Layout> layouts;
+    private final List<Map<String, Object>> frontMatters;
+    private final String missingParentKey;
+
+    private Chain(List<String> layoutIds, List<Layout> layouts,
+        List<Map<String, Object>> frontMatters, String missingParentKey) {
+      this.layoutIds = layoutIds;
+      this.layouts = layouts;
+      this.frontMatters = frontMatters;
+      this.missingParentKey = missingParentKey;
+    }
+
+    /**
+     * Returns the number of layouts in this chain.
+     *
+     * @return The number of layouts (at least 1).
+     */
+    int size() {
+      return layouts.size();
+    }
+
+    String getLayoutId(int level) {
+      return layoutIds.get(level);
+    }
+
+    Layout getLayout(int level) {
+      return layouts.get(level);
+    }
+
+    /**
+     * Returns the merged front matter for the given level.
+     *
+     * @param level The level (0 is the innermost layout).
+     * @return The (unmodifiable) merged front matter.
+     */
+    Map<String, Object> getFrontMatter(int level) {
+      return frontMatters.get(level);
+    }
+
+    /**
+     * Returns the keys of all layouts this chain was built from, including a referenced parent
+     * layout that does not exist (yet).
+     *
+     * @return The dependencies.
+     */
+    List<String> getDependencies() {
+      List<String> deps = new ArrayList<>(layoutIds.size() + 1);
+      for (String id : layoutIds) {
+        deps.add(toKey(id));
+      }
+      if (missingParentKey != null) {
+        deps.add(missingParentKey);
+      }
+      return deps;
+    }
+
+    private boolean isUpToDate(Function<String, URL> resolver,
+        Map<String, Object> currentSiteConfig) {
+      for (Layout layout : layouts) {
+        if (!layout.isUpToDate(currentSiteConfig)) {
+          return false;
+        }
+      }
+      return missingParentKey == null || resolver.apply(missingParentKey) == null;
+    }
+
+    private boolean contains(Path path) {
+      for (Layout layout : layouts) {
+        if (path.equals(layout.path)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  LayoutCache(TemplateParser parser, FrontMatterParser frontMatterParser) {
+    this.parser = parser;
+    this.frontMatterParser = frontMatterParser;
+  }
+
+  /**
+   * Sets the maximum number of cached layouts.
+   *
+   * @param maxSize The maximum number of layouts; 0 disables caching.
+   */
+  void setMaxSize(int maxSize) {
+    this.maxSize = Math.max(0, maxSize);
+  }
+
+  /**
+   * Enables or disables folding of expressions that only depend on the site configuration (see
+   * {@link SiteConstantFolder}).
+   *
+   * @param siteConfigSupplier Supplies the current site configuration values (a new map instance
+   *          whenever the configuration has changed), or {@code null} to disable folding.
+   */
+  void setSiteConfigSupplier(Supplier<Map<String, Object>> siteConfigSupplier) {
+    this.siteConfigSupplier = siteConfigSupplier;
+    clear();
+  }
+
+  private Map<String, Object> currentSiteConfig() {
+    Supplier<Map<String, Object>> supplier = siteConfigSupplier;
+    return supplier == null ? null : supplier.get();
+  }
+
+  /**
+   * Returns the parsed layout for the given key, parsing it if necessary.
+   *
+   * A cached layout is used as long as the last-modified time of its source is unchanged; the
+   * resource URL is only resolved when the layout needs to be (re-)loaded.
+   *
+   * @param key The layout key (e.g., "_layouts/default.html").
+   * @param resolver Resolves the key to the URL of the layout source, or {@code null} if there is
+   *          no such layout.
+   * @return The layout, or {@code null} if there is no such layout.
+   * @throws IOException on error.
+   */
+  Layout get(String key, Function<String, URL> resolver) throws IOException {
+    Layout layout;
+    lock.lock();
+    try {
+      layout = layouts.get(key);
+    } finally {
+      lock.unlock();
+    }
+    if (layout != null && layout.isUpToDate(currentSiteConfig())) {
+      hits.increment();
+      return layout;
+    }
+    misses.increment();
+
+    URL url = resolver.apply(key);
+    if (url == null) {
+      if (layout != null && layout.path != null) {
+        invalidate(layout.path);
+      }
+      return null;
+    }
+
+    layout = load(url);
+    if (maxSize > 0) {
+      lock.lock();
+      try {
+        layouts.put(key, layout);
+      } finally {
+        lock.unlock();
+      }
+      watch(key, layout.path);
+    }
+    return layout;
+  }
+
+  /**
+   * Returns the layout key for the given layout ID.
+   *
+   * @param layoutId The layout ID (e.g., "default").
+   * @return The key (e.g., "_layouts/default.html"), or {@code null} if the ID is empty.
+   */
+  static String toKey(String layoutId) {
+    if (layoutId == null || layoutId.isBlank()) {
+      return null;
+    }
+    return "_layouts/" + layoutId + ".html";
+  }
+
+  /**
+   * Returns the precomputed chain for the given layout, building it if necessary.
+   *
+   * @param layoutId The layout ID (e.g., "default").
+   * @param resolver Resolves a layout key to the URL of the layout source, or {@code null} if
+   *          there is no such layout.
+   * @return The chain, or {@code null} if there is no such layout.
+   * @throws IOException on error, including a circular reference between layouts.
+   */
+  Chain getChain(String layoutId, Function<String, URL> resolver) throws IOException {
+    String key = toKey(layoutId);
+    if (key == null) {
+      return null;
+    }
+    Chain chain = chains.get(key);
+    if (chain != null && chain.isUpToDate(resolver, currentSiteConfig())) {
+      return chain;
+    }
+
+    List<String> layoutIds = new ArrayList<>();
+    List<Layout> chainLayouts = new ArrayList<>();
+    List<Map<String, Object>> frontMatters = new ArrayList<>();
+    Map<String, Object> frontMatter = Collections.emptyMap();
+    String missingParentKey = null;
+
+    for (String id = layoutId, k = key; k != null; k = toKey(id)) {
+      if (layoutIds.contains(id)) {
+        throw new IOException("Circular reference detected: Layout " + id + " already detected: "
+            + layoutIds);
+      }
+      Layout layout = get(k, resolver);
+      if (layout == null) {
+        if (!layoutIds.isEmpty()) {
+          missingParentKey = k;
+        }
+        break;
+      }
+      layoutIds.add(id);
+      chainLayouts.add(layout);
+
+      Map<String, Object> merged = new LinkedHashMap<>(frontMatter);
+      merged.remove("layout");
+      merged.putAll(layout.getFrontMatter());
+      frontMatter = Collections.unmodifiableMap(merged);
+      frontMatters.add(frontMatter);
+
+      // the layout can have another layout
+      id = YAMLSupport.getVariableAsString(layout.getFrontMatter(), "layout");
+    }
+    if (chainLayouts.isEmpty()) {
+      chains.remove(key);
+      return null;
+    }
+
+    chain = new Chain(Collections.unmodifiableList(layoutIds), Collections.unmodifiableList(
+        chainLayouts), Collections.unmodifiableList(frontMatters), missingParentKey);
+    if (maxSize > 0) {
+      chains.put(key, chain);
+    }
+    return chain;
+  }
+
+  private Layout load(URL url) throws IOException {
+    Path path = PathUtil.toPathIfPossible(url);
+    long lastModified;
+    BufferedReader in;
+    if (path != null) {
+      lastModified = Files.getLastModifiedTime(path).toMillis();
+      in = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    } else {
+      URLConnection conn = url.openConnection();
+      lastModified = conn.getLastModified();
+      in = new BufferedReader(new InputStreamReader(conn.getInputStream(),
+          StandardCharsets.UTF_8));
+    }
+
+    try (BufferedReader br = in) {
+      Map<String, Object> frontMatter = new LinkedHashMap<>();
+      br.mark(4);
+      char[] cbuf = new char[4];
+      boolean haveFrontMatter = br.read(cbuf) == 4 && cbuf[0] == '-' && cbuf[1] == '-'
+          && cbuf[2] == '-' && cbuf[3] == '\n';
+      br.reset();
+      if (haveFrontMatter) {
+        frontMatterParser.parse(br, frontMatter);
+      }
+
+      StringWriter source = new StringWriter();
+      br.transferTo(source);
+
+      return new Layout(parser, path, lastModified, frontMatter, source.toString(),
+          currentSiteConfig());
+    }
+  }
+
+  private void watch(String key, Path path) {
+    if (path == null || !watchedPaths.add(path)) {
+      return;
+    }
+    PathWatcher pathWatcher = PathWatcher.getDefaultInstance();
+    if (pathWatcher.mayRegister(path)) {
+      LOG.debug("Watching layout for changes: {}", key);
+      pathWatcher.register(path, (p) -> invalidate(p));
+    }
+  }
+
+  /**
+   * Removes the layout with the given path from the cache.
+   *
+   * @param path The path of the layout file.
+   */
+  void invalidate(Path path) {
+    lock.lock();
+    try {
+      layouts.values().removeIf((l) -> path.equals(l.path));
+    } finally {
+      lock.unlock();
+    }
+    chains.values().removeIf((c) -> c.contains(path));
+  }
+
+  /**
+   * Removes all layouts from the cache.
+   */
+  void clear() {
+    lock.lock();
+    try {
+      layouts.clear();
+    } finally {
+      lock.unlock();
+    }
+    chains.clear();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Logs the number of cache hits and misses.
+   */
+  void logStatistics() {
+    LOG.info("Layout cache: {} hits, {} misses, {} chains", getHits(), getMisses(), chains
+        .size());
+  }
+}
@@ -125,6 +125,9 @@ public final class LiquidFilter extends HttpFilter {
     File targetFile = new File(app.getWebappWorkDir(), relativePath);
 
     boolean reload = "true".equals(req.getParameter("reload"));
+    if (!reload && mdSupport.checkNotModified(req, resp, false, mdPath, targetFile)) {
+      return true;
+    }
 
     String mimeType = servletContext.getMimeType(servletPath);
     resp.setContentType(mimeType);
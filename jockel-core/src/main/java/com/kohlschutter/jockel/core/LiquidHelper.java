@@ -21,16 +21,20 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -41,16 +45,21 @@ import org.snakeyaml.engine.v2.api.Load;
 import org.snakeyaml.engine.v2.api.LoadSettings;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
-import com.kohlschutter.dumbo.RenderState;
 import com.kohlschutter.dumbo.ServerApp;
 import com.kohlschutter.jockel.core.liqp.AssetPathTag;
+import com.kohlschutter.jockel.core.liqp.CacheBlock;
+import com.kohlschutter.jockel.core.liqp.CompiledTemplate;
 import com.kohlschutter.jockel.core.liqp.DateToXmlschemaFilter;
+import com.kohlschutter.jockel.core.liqp.FragmentCache;
+import com.kohlschutter.jockel.core.liqp.IncludeCachedTag;
 import com.kohlschutter.jockel.core.liqp.JockelIncludeTag;
 import com.kohlschutter.jockel.core.liqp.JsonifyFilter;
 import com.kohlschutter.jockel.core.liqp.MarkdownifyFilter;
 import com.kohlschutter.jockel.core.liqp.NumberOfWordsFilter;
+import com.kohlschutter.jockel.core.liqp.RenderTag;
 import com.kohlschutter.jockel.core.liqp.SeoTag;
 import com.kohlschutter.jockel.core.liqp.SlugifyFilter;
+import com.kohlschutter.jockel.core.liqp.SubstitutionTemplate;
 import com.kohlschutter.jockel.core.site.CustomSiteVariables;
 import com.kohlschutter.jockel.core.site.PermalinkParser;
 import com.kohlschutter.jockel.core.util.PathReaderSupplier;
@@ -62,6 +71,7 @@ import com.kohlschutter.stringhold.StringHolder;
 import com.kohlschutter.stringhold.liqp.Conditional;
 import com.kohlschutter.stringhold.liqp.Conditionally;
 import com.kohlschutter.stringhold.liqp.StringHolderRenderTransformer;
+import com.kohlschutter.util.PathUtil;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.util.sequence.LineAppendable;
 
@@ -77,6 +87,8 @@ public class LiquidHelper {
 
   private static final char[] FRONT_MATTER_LINE = {'-', '-', '-', '\n'};
 
+  private static final int FRONT_MATTER_BUFFER_SIZE = 1024;
+
   public static final String ENVIRONMENT_KEY_DUMBO_APP = ".dumbo.app";
 
   // snakeyaml
@@ -84,6 +96,15 @@ public class LiquidHelper {
 
   private final TemplateParser liqpParser;
 
+  private final JockelIncludeTag includeTag = new JockelIncludeTag();
+
+  // all tags that cache includes: "include", "include_cached" and "render"
+  private final List<JockelIncludeTag> includeTags = new ArrayList<>();
+
+  private final LayoutCache layoutCache;
+
+  private volatile DefaultsMatcher defaultsMatcher;
+
   private final ServerApp app;
 
   private final Map<String, Object> commonVariables;
@@ -101,7 +122,28 @@ public class LiquidHelper {
   LiquidHelper(ServerApp app, Map<String, Object> commonVariables) {
     this.app = app;
     this.commonVariables = commonVariables;
-    this.liqpParser = newLiqpParser(app);
+    this.liqpParser = newLiqpParser(app, includeTag, includeTags);
+    this.layoutCache = new LayoutCache(liqpParser, this::parseFrontMatter);
+  }
+
+  LayoutCache getLayoutCache() {
+    return layoutCache;
+  }
+
+  TemplateParser getParser() {
+    return liqpParser;
+  }
+
+  /**
+   * Enables or disables compilation of layouts and includes (see {@link CompiledTemplate}).
+   *
+   * Already parsed layouts are discarded, so the setting applies to them as well.
+   *
+   * @param compile {@code true} if templates should be compiled.
+   */
+  void setCompileTemplates(boolean compile) {
+    CompiledTemplate.setEnabled(liqpParser, compile);
+    layoutCache.clear();
   }
 
   void setContentTransformer(Function<Object, Object> transformer) {
@@ -171,7 +213,10 @@ public class LiquidHelper {
       expectedLen = ((HasExpectedLength) in).getExpectedLength();
     }
 
-    if (!in.markSupported()) {
+    if (justParseFrontMatter) {
+      // only the front matter is read, so there's no point in buffering large chunks of the body
+      in = new BufferedReader(in, FRONT_MATTER_BUFFER_SIZE);
+    } else if (!in.markSupported()) {
       in = new BufferedReader(in);
     }
 
@@ -184,9 +229,11 @@ public class LiquidHelper {
         variables.put(collectionItemType, pageVariables);
       }
 
+      RenderProfiler.Sample sample = RenderProfiler.start();
       initDefaults(inSup.getType(), inSup.getRelativePath(), pageVariables);
 
       parseFrontMatter(in, pageVariables);
+      RenderProfiler.stop(sample, "front-matter", inSup.getRelativePath());
 
       pageVariables.put(LiquidVariables.PAGE_COLLECTION, inSup.getType());
 
@@ -219,25 +266,26 @@ public class LiquidHelper {
         e.printStackTrace();
       }
 
-      Template template = liqpParser.parse(in);
-      for (Exception exc : template.errors()) {
-        if (LOG.isWarnEnabled()) {
-          LOG.warn("Template error: {}", exc.toString());
-        }
-        // exc.printStackTrace();
-      }
-
       if (justParseFrontMatter) {
+        // the body is neither parsed nor read
+        in.close();
         return pageVariables;
-      } else {
-        Object obj = template.renderToObject(variables);
+      }
+
+      sample = RenderProfiler.start();
+      Object obj = renderBody(readFully(in), variables);
+      RenderProfiler.stop(sample, "liquid", inSup.getRelativePath());
+      if (isMarkdown(variables, inSup)) {
         pageVariables.put(LiquidVariables.PAGE_CONTENT, StringHolder.withSupplier(
             () -> contentTransformer.apply(obj)));
-
-        return obj;
+      } else {
+        pageVariables.put(LiquidVariables.PAGE_CONTENT, obj);
       }
+
+      return obj;
     } else {
       if (justParseFrontMatter) {
+        in.close();
         return null;
       }
       CompletableFuture<IOException> excHolder = new CompletableFuture<IOException>();
@@ -254,7 +302,33 @@ public class LiquidHelper {
     }
   }
 
-  @SuppressWarnings("PMD.CognitiveComplexity")
+  private Object renderBody(String body, Map<String, Object> variables) {
+    // templates with nothing but {{ substitutions }} don't need liqp
+    SubstitutionTemplate substitution = SubstitutionTemplate.compile(liqpParser, body);
+    if (substitution != null) {
+      Object obj = substitution.render(variables, null);
+      if (obj != null) {
+        return obj;
+      }
+    }
+
+    Template template = liqpParser.parse(body);
+    for (Exception exc : template.errors()) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Template error: {}", exc.toString());
+      }
+      // exc.printStackTrace();
+    }
+
+    return template.renderToObject(variables);
+  }
+
+  private static String readFully(Reader in) throws IOException {
+    StringWriter sw = new StringWriter();
+    in.transferTo(sw);
+    return sw.toString();
+  }
+
   private void initDefaults(String type, String relativePath, Map<String, Object> pageVariables) {
     @SuppressWarnings("unchecked")
     List<Map<String, Map<String, Object>>> cv =
@@ -264,31 +338,14 @@ public class LiquidHelper {
       return;
     }
 
-    for (Map<String, Map<String, Object>> en : cv) {
-      Map<String, Object> scope = en.get("scope");
-
-      Object scopeType = scope.get("type");
-      if (scopeType != null) {
-        if (!scopeType.equals(type) && !String.valueOf(scopeType).isEmpty()) {
-          continue;
-        }
-      }
-      Object scopePath = scope.get("path");
-      if (scopePath != null) {
-        String scopePathStr = String.valueOf(scopePath);
-        if (!scopePathStr.isEmpty()) {
-          if (scopePathStr.contains("*")) {
-            throw new UnsupportedOperationException("globbing is not yet supported");
-          }
-          if (!scopePathStr.equals(relativePath) && !(relativePath.startsWith(scopePathStr)
-              && relativePath.length() > scopePathStr.length() && relativePath.charAt(scopePathStr
-                  .length()) == '/')) {
-            continue;
-          }
-        }
-      }
+    DefaultsMatcher matcher = defaultsMatcher;
+    if (matcher == null || !matcher.isCompiledFrom(cv)) {
+      // (re-)compile upon first use, and after the site configuration has been reloaded
+      matcher = new DefaultsMatcher(cv);
+      defaultsMatcher = matcher;
+    }
 
-      Map<String, Object> values = en.get("values");
+    for (Map<String, Object> values : matcher.match(type, relativePath)) {
       pageVariables.putAll(values);
     }
   }
@@ -298,19 +355,33 @@ public class LiquidHelper {
     BufferedReader br = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(
         in);
 
-    StringBuilder sbFrontMatter = new StringBuilder();
-    sbFrontMatter.append(br.readLine());
-    sbFrontMatter.append('\n');
+    String firstLine = br.readLine();
+    List<String> lines = new ArrayList<>();
     String l;
     do {
       l = br.readLine();
       if (l == null) {
         break;
       }
-      sbFrontMatter.append(l);
-      sbFrontMatter.append('\n');
+      lines.add(l);
     } while (!"---".equals(l));
 
+    // most front matter is simple enough to not need the full YAML parser
+    Map<String, Object> scanned = FrontMatterScanner.scan(l == null ? lines : lines.subList(0,
+        lines.size() - 1));
+    if (scanned != null) {
+      page.putAll(scanned);
+      return;
+    }
+
+    StringBuilder sbFrontMatter = new StringBuilder();
+    sbFrontMatter.append(firstLine);
+    sbFrontMatter.append('\n');
+    for (String line : lines) {
+      sbFrontMatter.append(line);
+      sbFrontMatter.append('\n');
+    }
+
     Iterable<Object> loadAllFromString = new Load(loadSettings).loadAllFromString(sbFrontMatter
         .toString());
     for (Object o : loadAllFromString) {
@@ -331,7 +402,10 @@ public class LiquidHelper {
     if (layout == null || layout.isBlank() || app == null) {
       return null;
     }
-    URL layoutURL = app.getResource("markdown/_layouts/" + layout + ".html");
+    String layoutPath = "_layouts/" + layout + ".html";
+    DependencyTracker.record(layoutPath);
+
+    URL layoutURL = app.getResource("markdown/" + layoutPath);
     if (layoutURL == null) {
       return null;
     } else {
@@ -340,61 +414,209 @@ public class LiquidHelper {
     }
   }
 
-  public Object renderLayout(String layoutId, BufferedReader in, Object contentSupply,
-      Map<String, Object> variables) throws IOException {
-    @SuppressWarnings("unchecked")
-    Set<String> includedLayouts = (((ThreadLocal<RenderState>) ((Map<String, Object>) variables.get(
-        LiquidVariables.DUMBO)).get(LiquidVariables.DUMBO_STATE_TL)).get()).getIncluded();
-    do { // NOPMD.WhileLoopWithLiteralBoolean
-      if (!includedLayouts.add(layoutId)) {
-        IOException e = new IOException("Circular reference detected: Layout " + layoutId
-            + " already detected: " + includedLayouts);
-        e.printStackTrace();
-        throw e;
-      }
-
-      variables.put("content", contentSupply);
+  /**
+   * Returns the precomputed layout chain for the given layout ID, from the layout cache if
+   * possible.
+   *
+   * @param layout The layout ID (e.g., "default").
+   * @return The layout chain, or {@code null} if there is no such layout.
+   * @throws IOException on error, including a circular reference between layouts.
+   */
+  LayoutCache.Chain getLayoutChain(String layout) throws IOException {
+    String layoutPath = LayoutCache.toKey(layout);
+    if (layoutPath == null || app == null) {
+      return null;
+    }
+    DependencyTracker.record(layoutPath);
 
-      @SuppressWarnings("unchecked")
-      Map<String, Object> layoutVariables = (Map<String, Object>) variables.computeIfAbsent(
-          "layout", (k) -> new HashMap<>());
-      layoutVariables.remove("layout");
+    LayoutCache.Chain chain = layoutCache.getChain(layout, this::resolveLayout);
+    if (chain != null) {
+      for (String dep : chain.getDependencies()) {
+        DependencyTracker.record(dep);
+      }
+    }
+    return chain;
+  }
 
-      if (in != null) {
-        if (hasFrontMatter(in)) {
-          // enables Liquid templates
-          parseFrontMatter(in, layoutVariables);
-        }
+  private URL resolveLayout(String layoutPath) {
+    return app.getResource("markdown/" + layoutPath);
+  }
 
+  /**
+   * Loads all layouts of the site into the layout cache, and precomputes their chains, so any
+   * circular references are reported upfront.
+   */
+  void preloadLayouts() {
+    if (app == null) {
+      return;
+    }
+    URL layoutsURL = app.getResource("markdown/_layouts/");
+    Path layoutsDir = layoutsURL == null ? null : PathUtil.toPathIfPossible(layoutsURL);
+    if (layoutsDir == null || !Files.isDirectory(layoutsDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(layoutsDir, "*.html")) {
+      for (Path p : ds) {
+        String filename = p.getFileName().toString();
+        String layoutId = filename.substring(0, filename.length() - ".html".length());
         try {
-          Template template = liqpParser.parse(in);
+          layoutCache.getChain(layoutId, this::resolveLayout);
+        } catch (IOException | RuntimeException e) {
+          LOG.warn("Could not load layout {}", layoutId, e);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not list layouts", e);
+    }
+  }
 
-          contentSupply = template.renderToObjectUnguarded(variables);
+  /**
+   * Loads the given layout into the layout cache, and precomputes its chain.
+   *
+   * @param layoutId The layout ID (e.g., "default").
+   * @throws IOException on error, including a circular reference between layouts.
+   */
+  void preloadLayout(String layoutId) throws IOException {
+    if (app == null) {
+      return;
+    }
+    layoutCache.getChain(layoutId, this::resolveLayout);
+  }
 
-          for (Exception exc : template.errors()) {
-            if (LOG.isWarnEnabled()) {
-              LOG.warn("Template error: {}", exc.toString());
-            }
-          }
-        } catch (RuntimeException e) {
-          throw new IllegalStateException("Error in layout " + layoutId, e);
-        }
+  /**
+   * Forgets all cached includes, including failed lookups; must be called when a file in
+   * "_includes/" has been added, changed or removed.
+   */
+  void invalidateIncludes() {
+    for (JockelIncludeTag tag : includeTags) {
+      tag.invalidate();
+    }
+  }
 
-        in.close();
-      }
+  /**
+   * Parses the given include ahead of time, and keeps it in the include cache.
+   *
+   * @param includeResource The include file, relative to "_includes/".
+   * @throws IOException on error.
+   */
+  void preloadInclude(String includeResource) throws IOException {
+    if (app == null) {
+      return;
+    }
+    includeTag.preload(app, liqpParser, includeResource);
+  }
 
-      // the layout can have another layout
-      layoutId = YAMLSupport.getVariableAsString(variables, "layout", "layout");
-      in = layoutReader(layoutId);
-      if (in == null) {
-        break;
+  /**
+   * Checks if the content of the given source is to be converted from Markdown to HTML.
+   *
+   * This is determined by the page being rendered (if known), or otherwise by the file extension
+   * of the source (e.g., for collection items).
+   */
+  @SuppressWarnings("unchecked")
+  private static boolean isMarkdown(Map<String, Object> variables, PathReaderSupplier inSup) {
+    Object dumboVariables = variables == null ? null : variables.get(LiquidVariables.DUMBO);
+    if (dumboVariables instanceof Map) {
+      Object markdown = ((Map<String, Object>) dumboVariables).get(LiquidVariables.DUMBO_MARKDOWN);
+      if (markdown instanceof Boolean) {
+        return (Boolean) markdown;
       }
-    } while (true); // NOPMD.WhileLoopWithLiteralBoolean
+    }
+    String relativePath = inSup.getRelativePath();
+    return relativePath != null && (relativePath.endsWith(".md") || relativePath.endsWith(
+        ".markdown"));
+  }
 
+  Object renderLayout(LayoutCache.Chain chain, Object contentSupply,
+      Map<String, Object> variables) {
+    for (int level = 0, n = chain.size(); level < n; level++) {
+      contentSupply = renderLayoutLevel(chain, level, contentSupply, variables);
+    }
     return contentSupply;
   }
 
+  /**
+   * Renders the given layout chain, writing the outermost layout directly to the given
+   * {@link Appendable}.
+   *
+   * With compiled templates (see {@link #setCompileTemplates(boolean)}), the outermost layout is
+   * written while it is being rendered, so its beginning can be sent before the content; otherwise,
+   * it is written once rendered completely. Inner layouts are always rendered completely, since
+   * they are the content of the next layout.
+   *
+   * @param chain The layout chain.
+   * @param contentSupply The content of the innermost layout.
+   * @param variables The variables.
+   * @param out The target.
+   * @throws IOException on error.
+   */
+  void renderLayout(LayoutCache.Chain chain, Object contentSupply, Map<String, Object> variables,
+      Appendable out) throws IOException {
+    int outermost = chain.size() - 1;
+    for (int level = 0; level < outermost; level++) {
+      contentSupply = renderLayoutLevel(chain, level, contentSupply, variables);
+    }
+
+    putLayoutVariables(chain, outermost, contentSupply, variables);
+    RenderProfiler.Sample sample = RenderProfiler.start();
+    List<Exception> errors = new ArrayList<>();
+    try {
+      chain.getLayout(outermost).renderTo(variables, errors, out);
+    } catch (RuntimeException e) {
+      throw new IllegalStateException("Error in layout " + chain.getLayoutId(outermost), e);
+    } finally {
+      logTemplateErrors(errors);
+      RenderProfiler.stop(sample, "layout", LayoutCache.toKey(chain.getLayoutId(outermost)));
+    }
+  }
+
+  private static Object renderLayoutLevel(LayoutCache.Chain chain, int level,
+      Object contentSupply, Map<String, Object> variables) {
+    putLayoutVariables(chain, level, contentSupply, variables);
+
+    LayoutCache.Layout layout = chain.getLayout(level);
+    RenderProfiler.Sample sample = RenderProfiler.start();
+    List<Exception> errors = new ArrayList<>();
+    try {
+      Object obj = layout.render(variables, errors);
+      logTemplateErrors(errors);
+      return obj;
+    } catch (RuntimeException e) {
+      throw new IllegalStateException("Error in layout " + chain.getLayoutId(level), e);
+    } finally {
+      RenderProfiler.stop(sample, "layout", LayoutCache.toKey(chain.getLayoutId(level)));
+    }
+  }
+
+  private static void putLayoutVariables(LayoutCache.Chain chain, int level, Object contentSupply,
+      Map<String, Object> variables) {
+    variables.put("content", contentSupply);
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> layoutVariables = (Map<String, Object>) variables.computeIfAbsent(
+        "layout", (k) -> new HashMap<>());
+    layoutVariables.remove("layout");
+    layoutVariables.putAll(chain.getFrontMatter(level));
+  }
+
+  private static void logTemplateErrors(List<Exception> errors) {
+    for (Exception exc : errors) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Template error: {}", exc.toString());
+      }
+    }
+  }
+
   public static TemplateParser newLiqpParser(ServerApp app) {
+    return newLiqpParser(app, new JockelIncludeTag(), new ArrayList<>());
+  }
+
+  private static TemplateParser newLiqpParser(ServerApp app, JockelIncludeTag includeTag,
+      List<JockelIncludeTag> includeTags) {
+    FragmentCache fragmentCache = new FragmentCache();
+    IncludeCachedTag includeCachedTag = new IncludeCachedTag(fragmentCache);
+    RenderTag renderTag = new RenderTag(fragmentCache);
+    includeTags.addAll(List.of(includeTag, includeCachedTag, renderTag));
+
     return new TemplateParser.Builder() //
         .withFlavor(Flavor.JEKYLL) //
         // filters
@@ -404,12 +626,15 @@ public class LiquidHelper {
         .withFilter(new DateToXmlschemaFilter()) //
         .withFilter(new JsonifyFilter())
         // tags
-        .withInsertion(new JockelIncludeTag()) //
+        .withInsertion(includeTag) //
+        .withInsertion(includeCachedTag) //
+        .withInsertion(renderTag) //
         .withInsertion(new SeoTag()) //
         .withInsertion(new AssetPathTag()) //
         .withInsertion(new Conditional()) //
         // blocks
         .withInsertion(new Conditionally()) //
+        .withInsertion(new CacheBlock(fragmentCache)) //
         //
         // .withRenderTransformer(RenderTransformer.DEFAULT) //
         .withStrictVariables(StrictVariablesMode.SANE) //
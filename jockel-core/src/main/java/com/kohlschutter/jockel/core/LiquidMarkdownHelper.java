@@ -26,25 +26,19 @@ import java.nio.file.Path;
 import java.util.Map;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
-import com.kohlschutter.dumbo.util.SuppliedThreadLocal;
 import com.kohlschutter.jockel.core.util.PathReaderSupplier;
 import com.kohlschutter.stringhold.StringHolder;
 import com.kohlschutter.stringhold.StringHolderSequence;
 import com.vladsch.flexmark.util.ast.Document;
 
 public final class LiquidMarkdownHelper extends MarkdownHelper {
-  private static final ThreadLocal<Boolean> TL_IS_MARKDOWN_ENABLED = SuppliedThreadLocal.of(
-      () -> false);
-
   private final LiquidHelper liquidHelper;
 
   LiquidMarkdownHelper(LiquidHelper liquidHelper) {
     super();
     this.liquidHelper = liquidHelper;
+    // only called for Markdown content; see LiquidHelper
     liquidHelper.setContentTransformer((o) -> {
-      if (!isMarkdownEnabled()) {
-        return o;
-      }
       try {
         Document doc = parseMarkdown(o);
         StringHolderSequence seq = StringHolder.newSequence();
@@ -130,12 +124,4 @@ public final class LiquidMarkdownHelper extends MarkdownHelper {
   public LiquidHelper getLiquidHelper() {
     return liquidHelper;
   }
-
-  boolean isMarkdownEnabled() {
-    return TL_IS_MARKDOWN_ENABLED.get();
-  }
-
-  void setMarkdownEnabledState(boolean markdown) {
-    TL_IS_MARKDOWN_ENABLED.set(markdown);
-  }
 }
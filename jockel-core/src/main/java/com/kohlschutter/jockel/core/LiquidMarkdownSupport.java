@@ -34,6 +34,10 @@ import jakarta.servlet.DispatcherType;
     //
 })
 @Filters({ //
+    @FilterMapping(map = "/*", to = GeneratedPageFilter.class, initOrder = 0, //
+        dispatcherTypes = {DispatcherType.REQUEST}), //
+    @FilterMapping(map = "/*", to = PrecompressedFilter.class, initOrder = 0, //
+        dispatcherTypes = {DispatcherType.REQUEST}), //
     @FilterMapping(map = "*.html", to = HtmlJspFilter.class, initOrder = 1, //
         dispatcherTypes = {DispatcherType.REQUEST}), //
     @FilterMapping(map = {"*.txt", "*.json", "*.xml"}, to = LiquidFilter.class, initOrder = 2, //
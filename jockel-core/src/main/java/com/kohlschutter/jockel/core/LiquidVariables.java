@@ -22,6 +22,8 @@ public final class LiquidVariables {
   public static final String DUMBO_HTMLHEAD = "htmlHead";
   public static final String DUMBO_HTMLBODYTOP = "htmlBodyTop";
   public static final String DUMBO_STATE_TL = " tlState";
+  public static final String DUMBO_STATE = " state";
+  public static final String DUMBO_MARKDOWN = " markdown";
 
   public static final String SITE = "site";
   public static final String SITE_DATA = "data";
@@ -29,6 +31,7 @@ public final class LiquidVariables {
   public static final String SITE_CATEGORIES = "categories";
   public static final String SITE_COLLECTIONS = "collections";
   public static final String SITE_POSTS = "posts";
+  public static final String SITE_INCREMENTAL = "incremental";
 
   public static final String JEKYLL = "jekyll";
 
@@ -43,6 +46,7 @@ public final class LiquidVariables {
   public static final String PAGE_TYPE = "type";
   public static final String PAGE_NAME = "name";
   public static final String PAGE_TITLE = "title";
+  public static final String PAGE_DATE = "date";
   public static final String PAGE_EXCERPT = "excerpt";
   public static final String PAGE_LAST_MODIFIED_AT = "last_modified_at";
 
@@ -54,6 +58,24 @@ public final class LiquidVariables {
   public static final String JEKYLLARCHIVES_LAYOUTS = "layouts";
   public static final String JEKYLLARCHIVES_PERMALINKS = "permalinks";
 
+  public static final String JOCKEL = "jockel";
+  public static final String JOCKEL_PARALLELISM = "parallelism";
+  public static final String JOCKEL_RENDER_CACHE = "render_cache";
+  public static final String JOCKEL_RENDER_CACHE_DIR = "render_cache_dir";
+  public static final String JOCKEL_BACKGROUND_RENDERING = "background_rendering";
+  public static final String JOCKEL_VIRTUAL_THREADS = "virtual_threads";
+  public static final String JOCKEL_STREAMING = "streaming";
+  public static final String JOCKEL_STREAM_FLUSH_SIZE = "stream_flush_size";
+  public static final String JOCKEL_PRECOMPRESS = "precompress";
+  public static final String JOCKEL_CACHE_CONTROL = "cache_control";
+  public static final String JOCKEL_LAYOUT_CACHE_SIZE = "layout_cache_size";
+  public static final String JOCKEL_PROFILE = "profile";
+  public static final String JOCKEL_FRAGMENT_CACHE_SIZE = "fragment_cache_size";
+  public static final String JOCKEL_WARM_UP = "warm_up";
+  public static final String JOCKEL_COMPILE_TEMPLATES = "compile_templates";
+  public static final String JOCKEL_FOLD_SITE_CONSTANTS = "fold_site_constants";
+  public static final String COLLECTION_CACHE_CONTROL = "cache_control";
+
   private LiquidVariables() {
   }
 }
\ No newline at end of file
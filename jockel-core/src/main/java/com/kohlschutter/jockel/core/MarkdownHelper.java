@@ -20,7 +20,6 @@ package com.kohlschutter.jockel.core;
 import java.io.IOException;
 import java.io.Reader;
 
-import com.kohlschutter.dumbo.RenderState;
 import com.kohlschutter.dumbo.ext.prism.PrismSupport;
 import com.kohlschutter.jockel.core.flexmark.CustomFencedCodeRenderer;
 import com.kohlschutter.stringhold.StringHolder;
@@ -77,10 +76,21 @@ public class MarkdownHelper {
    * @param document The document.
    */
   public void render(Document document, StringHolderSequence appendable) {
+    render(document, (Appendable) appendable);
+  }
+
+  /**
+   * Renders the parsed Markdown document directly to an {@link Appendable}, such as a response
+   * writer.
+   *
+   * @param document The document.
+   * @param appendable The target.
+   */
+  public void render(Document document, Appendable appendable) {
     htmlRenderer.render(document, appendable);
 
     if (document.contains(Parser.FENCED_CODE_CONTENT_BLOCK)) {
-      RenderState.get().setMarkedUsed(PrismSupport.class);
+      ComponentUsageTracker.markUsed(PrismSupport.class);
     }
   }
 }
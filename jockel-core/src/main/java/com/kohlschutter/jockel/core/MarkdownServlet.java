@@ -111,6 +111,9 @@ public final class MarkdownServlet extends HttpServlet {
     File mdFile = new File(app.getWebappWorkDir(), relativePath);
 
     boolean reload = "true".equals(req.getParameter("reload"));
+    if (!reload && mdSupport.checkNotModified(req, resp, true, mdPath, mdFile)) {
+      return;
+    }
     mdSupport.render(true, relativePath, mdPath, mdFile, reload, resp, null, null, null);
   }
 }
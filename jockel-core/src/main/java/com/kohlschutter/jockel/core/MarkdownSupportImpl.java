@@ -17,7 +17,6 @@
  */
 package com.kohlschutter.jockel.core;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -29,14 +28,22 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -47,18 +54,24 @@ import com.kohlschutter.dumbo.RenderState;
 import com.kohlschutter.dumbo.ServerApp;
 import com.kohlschutter.dumbo.util.MultiplexedAppendable.SuppressErrorsAppendable;
 import com.kohlschutter.dumbo.util.SuccessfulCloseWriter;
+import com.kohlschutter.efesnitch.PathWatcher;
 import com.kohlschutter.jockel.core.site.CustomSiteVariables;
 import com.kohlschutter.jockel.core.site.JekyllObject;
 import com.kohlschutter.jockel.core.site.PaginatorObject;
 import com.kohlschutter.jockel.core.site.PermalinkParser;
 import com.kohlschutter.jockel.core.site.SiteCollection;
+import com.kohlschutter.jockel.core.site.SiteData;
 import com.kohlschutter.jockel.core.site.SiteObject;
+import com.kohlschutter.jockel.core.util.FlushingAppendable;
+import com.kohlschutter.jockel.core.util.LayeredMap;
 import com.kohlschutter.jockel.core.util.PathReaderSupplier;
 import com.kohlschutter.stringhold.IOExceptionHandler;
 import com.kohlschutter.stringhold.StringHolder;
 import com.kohlschutter.stringhold.StringHolderSequence;
+import com.kohlschutter.util.PathUtil;
 import com.vladsch.flexmark.util.ast.Document;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 final class MarkdownSupportImpl {
@@ -70,7 +83,12 @@ final class MarkdownSupportImpl {
   private final ServerApp app;
 
   private final Map<String, Object> commonVariables = new HashMap<>();
-  private final Map<String, Object> commonDumboVariables = new HashMap<>();
+
+  /**
+   * An immutable snapshot of {@link #commonVariables}, shared by all renders; see
+   * {@link #publishSiteLayer()}.
+   */
+  private volatile Map<String, Object> siteLayer;
 
   private final LiquidHelper liquid;
   private final LiquidMarkdownHelper liquidMarkdown;
@@ -79,6 +97,26 @@ final class MarkdownSupportImpl {
 
   private final File webappWorkDir;
 
+  private final boolean incremental;
+  private final DependencyGraph dependencies = new DependencyGraph();
+  private final Map<String, PageJob> pageJobs = new ConcurrentHashMap<>();
+  private final Path markdownRoot;
+  private final RenderCache renderCache;
+  private final boolean backgroundRendering;
+  private volatile boolean ready = false;
+  private volatile Exception backgroundRenderingFailure;
+  private final int streamFlushSize;
+  private final boolean precompress;
+  private final RenderProfiler profiler;
+  private FrontMatterIndex frontMatterIndex;
+  /**
+   * The relative paths of the collection items listed on each archive page (by target path).
+   */
+  private final Map<String, Set<String>> archiveItems = new ConcurrentHashMap<>();
+  private final long startTime = System.currentTimeMillis();
+  private final Map<String, Long> directoryTimestamps = new ConcurrentHashMap<>();
+  private final Set<String> watchedDirectories = ConcurrentHashMap.newKeySet();
+
   MarkdownSupportImpl(ServerApp app) throws IOException {
     this.app = app;
     this.liquid = new LiquidHelper(app, commonVariables);
@@ -92,63 +130,554 @@ final class MarkdownSupportImpl {
     webappWorkDir = app.getWebappWorkDir();
     Files.createDirectories(webappWorkDir.toPath());
 
-    commonVariables.put(LiquidVariables.DUMBO, commonDumboVariables);
+    commonVariables.put(LiquidVariables.DUMBO, Collections.emptyMap());
 
     commonVariables.put(LiquidVariables.JEKYLL, new JekyllObject());
 
     siteObject = SiteObject.addTo(app, liquid, commonVariables);
     commonVariables.put(LiquidVariables.PAGINATOR, new PaginatorObject(commonVariables));
+    publishSiteLayer();
+
+    incremental = Boolean.parseBoolean(String.valueOf(siteObject.get(
+        LiquidVariables.SITE_INCREMENTAL)));
+    markdownRoot = PathUtil.toPathIfPossible(app.getResource("markdown/"));
+    renderCache = initRenderCache();
+    backgroundRendering = siteObject.getJockelSetting(LiquidVariables.JOCKEL_BACKGROUND_RENDERING,
+        false);
+    streamFlushSize = siteObject.getJockelSetting(LiquidVariables.JOCKEL_STREAMING, false)
+        ? siteObject.getJockelSetting(LiquidVariables.JOCKEL_STREAM_FLUSH_SIZE, 8192) : 0;
+    precompress = siteObject.getJockelSetting(LiquidVariables.JOCKEL_PRECOMPRESS, false);
+    profiler = siteObject.getJockelSetting(LiquidVariables.JOCKEL_PROFILE, false)
+        ? new RenderProfiler() : null;
+    liquid.getLayoutCache().setMaxSize(siteObject.getJockelSetting(
+        LiquidVariables.JOCKEL_LAYOUT_CACHE_SIZE, LayoutCache.DEFAULT_MAX_SIZE));
+    liquid.setCompileTemplates(siteObject.getJockelSetting(
+        LiquidVariables.JOCKEL_COMPILE_TEMPLATES, false));
+    if (siteObject.getJockelSetting(LiquidVariables.JOCKEL_FOLD_SITE_CONSTANTS, false)) {
+      liquid.getLayoutCache().setSiteConfigSupplier(siteObject::getConfig);
+    }
+
+    if (siteObject.getJockelSetting(LiquidVariables.JOCKEL_WARM_UP, false)) {
+      try (GeneratorExecutor executor = newGeneratorExecutor(Thread.NORM_PRIORITY)) {
+        new SiteWarmUp(app, liquid, liquidMarkdown).run(executor);
+      }
+    }
 
     createFiles();
+
+    if (incremental) {
+      watchForChanges();
+    }
+  }
+
+  private RenderCache initRenderCache() throws IOException {
+    if (!siteObject.getJockelSetting(LiquidVariables.JOCKEL_RENDER_CACHE, false)) {
+      return null;
+    } else if (markdownRoot == null) {
+      LOG.warn("Cannot use render cache: markdown/ is not a file system path");
+      return null;
+    }
+
+    Object cacheDir = siteObject.getJockelSetting(LiquidVariables.JOCKEL_RENDER_CACHE_DIR);
+    Path cachePath = cacheDir == null ? new File(app.getWorkDir(), "jockel-render-cache").toPath()
+        : Path.of(cacheDir.toString());
+    LOG.info("Using render cache: {}", cachePath);
+    return new RenderCache(cachePath, markdownRoot, app.getApplicationClass());
+  }
+
+  /**
+   * Checks if generated files are accompanied by precompressed variants.
+   *
+   * @return {@code true} if so.
+   */
+  boolean isPrecompressing() {
+    return precompress;
+  }
+
+  /**
+   * Writes the precompressed variants of the given generated file, if enabled.
+   *
+   * @param generatedFile The generated file.
+   */
+  void precompress(Path generatedFile) {
+    if (precompress) {
+      Precompressor.compress(generatedFile);
+    }
+  }
+
+  private boolean isTrackingDependencies() {
+    return incremental || renderCache != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void watchForChanges() {
+    if (markdownRoot == null) {
+      LOG.warn("Cannot watch for changes: markdown/ is not a file system path");
+      return;
+    }
+
+    List<String> watched = new ArrayList<>(List.of("_config.yml", "_layouts", "_includes",
+        "_data"));
+    for (String collectionId : ((Map<String, Object>) siteObject.get(
+        LiquidVariables.SITE_COLLECTIONS)).keySet()) {
+      watched.add("_" + collectionId);
+    }
+
+    PathWatcher pathWatcher = PathWatcher.getDefaultInstance();
+    for (String w : watched) {
+      Path path = markdownRoot.resolve(w);
+      if (Files.exists(path) && pathWatcher.mayRegister(path)) {
+        LOG.info("Watching for changes: {}", path);
+        pathWatcher.register(path, this::onChange);
+        watchedDirectories.add(w);
+      }
+    }
+  }
+
+  /**
+   * Called upon a change of a watched site resource; re-renders all pages that depend on it.
+   *
+   * @param path The changed path (a file or a directory).
+   */
+  @SuppressWarnings("unchecked")
+  private synchronized void onChange(Path path) {
+    String relativePath = markdownRoot.relativize(path).toString().replace(File.separatorChar,
+        '/');
+    boolean directory = Files.isDirectory(path);
+    LOG.info("Change detected: {}", relativePath);
+    directoryTimestamps.clear();
+
+    try {
+      if ("_config.yml".equals(relativePath)) {
+        // everything may be affected
+        siteObject.reloadConfig();
+        if (renderCache != null) {
+          renderCache.reloadConfig();
+        }
+        commonVariables.put(LiquidVariables.PAGINATOR, new PaginatorObject(commonVariables));
+        publishSiteLayer();
+        pageJobs.clear();
+        createFiles();
+        return;
+      }
+
+      if ("_data".equals(relativePath) || relativePath.startsWith("_data/")) {
+        siteObject.getData().invalidate();
+      }
+      if ("_layouts".equals(relativePath) || relativePath.startsWith("_layouts/")) {
+        liquid.getLayoutCache().clear();
+      }
+      if ("_includes".equals(relativePath) || relativePath.startsWith("_includes/")) {
+        liquid.invalidateIncludes();
+      }
+      List<SiteCollection> changedCollections = new ArrayList<>();
+      for (String collectionId : ((Map<String, Object>) siteObject.get(
+          LiquidVariables.SITE_COLLECTIONS)).keySet()) {
+        String collectionDir = "_" + collectionId;
+        if (collectionDir.equals(relativePath) || relativePath.startsWith(collectionDir + "/")) {
+          SiteCollection sc = (SiteCollection) siteObject.get(collectionId);
+          sc.invalidate(relativePath);
+          changedCollections.add(sc);
+        }
+      }
+      siteObject.nextGeneration();
+      if (renderCache != null) {
+        renderCache.clearMemo();
+      }
+
+      Set<String> targets = dependencies.getAffectedTargets(relativePath, directory);
+      if (!changedCollections.isEmpty()) {
+        targets.addAll(reindex(changedCollections));
+      }
+      rerender(targets);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Could not update site after change of {}", relativePath, e);
+    }
+  }
+
+  /**
+   * Publishes the current state of {@link #commonVariables} as the shared site layer for subsequent
+   * renders. Must be called after {@link #commonVariables} has been modified.
+   */
+  private void publishSiteLayer() {
+    siteLayer = Collections.unmodifiableMap(new HashMap<>(commonVariables));
+  }
+
+  private void rerender(Set<String> targets) throws IOException {
+    if (targets.isEmpty()) {
+      return;
+    }
+    LOG.info("Re-rendering {} of {} known targets", targets.size(), dependencies.size());
+
+    try (GeneratorExecutor executor = newGeneratorExecutor(Thread.NORM_PRIORITY)) {
+      for (String target : targets) {
+        PageJob job = pageJobs.get(target);
+        if (job == null) {
+          // rendered upon request; have it regenerated upon the next request
+          Files.deleteIfExists(Path.of(target));
+          Precompressor.delete(Path.of(target));
+        } else {
+          executor.submit(job::render);
+        }
+      }
+
+      executor.awaitCompletion();
+      executor.logStatistics();
+    }
+    reportProfile();
+  }
+
+  private void reportProfile() {
+    if (profiler != null) {
+      profiler.report(app.getWorkDir().toPath().resolve("render-profile.txt"));
+    }
+  }
+
+  /**
+   * Re-indexes the front matter of all collection items after an item of the given collections has
+   * changed.
+   *
+   * If the indexed front matter (permalinks, layouts, titles, dates, tags, categories) is
+   * unchanged, nothing else needs to be done, since all pages that accessed the changed item depend
+   * on it. Otherwise, the archives, site.tags and site.categories are recomputed, and pages that no
+   * longer exist are deleted.
+   *
+   * @param changedCollections The collections that have changed.
+   * @return The targets that need to be rendered in addition to those that depend on the changed
+   *         item: new pages, archive pages whose list of items has changed, and pages that depend
+   *         on the order of items in the changed collections.
+   * @throws IOException on error.
+   */
+  private Set<String> reindex(List<SiteCollection> changedCollections) throws IOException {
+    FrontMatterIndex index;
+    try (GeneratorExecutor executor = newGeneratorExecutor(Thread.NORM_PRIORITY)) {
+      index = FrontMatterIndex.build(siteObject, executor);
+    }
+    if (frontMatterIndex != null && frontMatterIndex.hasSameFrontMatter(index)) {
+      return Collections.emptySet();
+    }
+    LOG.info("Front matter has changed; recomputing archives");
+
+    Map<String, PageJob> previousJobs = new HashMap<>(pageJobs);
+    Map<String, Set<String>> previousArchiveItems = new HashMap<>(archiveItems);
+    pageJobs.clear();
+    archiveItems.clear();
+    createPageJobs(index);
+
+    Set<String> targets = new HashSet<>();
+    for (Map.Entry<String, PageJob> en : pageJobs.entrySet()) {
+      String target = en.getKey();
+      PageJob previous = previousJobs.remove(target);
+      if (previous == null || !previous.isRendered() || !Objects.equals(archiveItems.get(target),
+          previousArchiveItems.get(target))) {
+        targets.add(target);
+      } else {
+        en.getValue().setRendered();
+      }
+    }
+    for (String target : previousJobs.keySet()) {
+      LOG.info("Deleting page that no longer exists: {}", target);
+      Files.deleteIfExists(Path.of(target));
+      Precompressor.delete(Path.of(target));
+    }
+    for (SiteCollection sc : changedCollections) {
+      targets.addAll(dependencies.getTargets(sc.getOrderDependency()));
+    }
+    return targets;
   }
 
-  @SuppressWarnings({"unchecked", "PMD.CognitiveComplexity"})
   private void createFiles() throws IOException {
+    liquid.preloadLayouts();
+
+    FrontMatterIndex index;
+    try (GeneratorExecutor executor = newGeneratorExecutor(Thread.NORM_PRIORITY)) {
+      index = FrontMatterIndex.build(siteObject, executor);
+    }
+    archiveItems.clear();
+    List<PageJob> jobs = createPageJobs(index);
+
+    if (backgroundRendering) {
+      LOG.info("Indexed {} pages; rendering in background", jobs.size());
+      renderInBackground(jobs);
+    } else {
+      renderPages(jobs, Thread.NORM_PRIORITY);
+      ready = true;
+    }
+  }
+
+  /**
+   * Computes the archives, site.tags and site.categories from the given front matter index, and
+   * creates the jobs for all pages of the site.
+   *
+   * @param index The front matter index.
+   * @return The page jobs.
+   */
+  @SuppressWarnings({"unchecked", "PMD.CognitiveComplexity"})
+  private List<PageJob> createPageJobs(FrontMatterIndex index) {
+    frontMatterIndex = index;
+
     Map<String, Map<String, Collection<Object>>> categoryArchives = new HashMap<>();
     Map<String, Map<String, Collection<Object>>> tagArchives = new HashMap<>();
     Map<String, Map<String, Map<String, Collection<Object>>>> archives = new HashMap<>();
     archives.put("tags", tagArchives);
     archives.put("categories", categoryArchives);
 
+    // all dated items, bucketed by day (newest first); see addDateArchives
+    SortedMap<LocalDate, Map<String, Collection<Object>>> dayBuckets = new TreeMap<>(Collections
+        .reverseOrder());
+
     for (String collectionId : ((Map<String, Object>) siteObject.get("collections")).keySet()) {
       SiteCollection sc = (SiteCollection) siteObject.get(collectionId);
       if (!sc.isOutput()) {
         continue;
       }
 
-      List<Map<String, Object>> list = (List<Map<String, Object>>) siteObject.get(collectionId);
-      for (Map<String, Object> l : list) {
-        for (String category : (Collection<String>) nullToEmptyCollection(l.get(
-            LiquidVariables.PAGE_CATEGORIES))) {
+      for (FrontMatterIndex.Entry entry : frontMatterIndex.getEntries(collectionId)) {
+        Map<String, Object> l = entry.getItem();
+        for (String category : entry.getCategories()) {
           categoryArchives.computeIfAbsent(category, (k) -> new HashMap<>()).computeIfAbsent(
               collectionId, (id) -> new ArrayList<>()).add(l);
         }
-        for (String tag : (Collection<String>) nullToEmptyCollection(l.get(
-            LiquidVariables.PAGE_TAGS))) {
+        for (String tag : entry.getTags()) {
           tagArchives.computeIfAbsent(tag, (k) -> new HashMap<>()).computeIfAbsent(collectionId, (
               id) -> new ArrayList<>()).add(l);
         }
+        LocalDate date = entry.getDate();
+        if (date != null) {
+          dayBuckets.computeIfAbsent(date, (k) -> new LinkedHashMap<>()).computeIfAbsent(
+              collectionId, (id) -> new ArrayList<>()).add(l);
+        }
       }
     }
-    createArchives(archives);
-
+    addDateArchives(dayBuckets, archives);
+    // make site.tags and site.categories available before rendering any page
     siteObject.initCategoriesAndTags(archives);
 
+    List<PageJob> jobs = new ArrayList<>();
+    createArchives(archives, jobs);
+    createCollectionPages(jobs);
+    return jobs;
+  }
+
+  private GeneratorExecutor newGeneratorExecutor(int threadPriority) {
+    return new GeneratorExecutor(siteObject.getJockelSetting(LiquidVariables.JOCKEL_PARALLELISM,
+        1), threadPriority, siteObject.getJockelSetting(LiquidVariables.JOCKEL_VIRTUAL_THREADS,
+            false));
+  }
+
+  private void renderPages(List<PageJob> jobs, int threadPriority) throws IOException {
+    try (GeneratorExecutor executor = newGeneratorExecutor(threadPriority)) {
+      for (PageJob job : jobs) {
+        executor.submit(job::renderIfNecessary);
+      }
+
+      executor.awaitCompletion();
+      executor.logStatistics();
+    }
+    if (renderCache != null) {
+      renderCache.logStatistics();
+    }
+    liquid.getLayoutCache().logStatistics();
+    reportProfile();
+  }
+
+  /**
+   * Renders the given pages in a low-priority background thread. Requests for pages that have not
+   * been rendered yet render them on demand (see {@link #renderIfNecessary(String)}).
+   *
+   * If background rendering fails, the site is not considered ready, so pages that could not be
+   * rendered in the background are still rendered on demand (and report their own errors).
+   *
+   * @param jobs The pages to render.
+   */
+  private void renderInBackground(List<PageJob> jobs) {
+    ready = false;
+    backgroundRenderingFailure = null;
+    Thread t = new Thread(() -> {
+      try {
+        renderPages(jobs, Thread.MIN_PRIORITY);
+        ready = true;
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Background rendering failed; continuing to render pages on demand", e);
+        backgroundRenderingFailure = e;
+      }
+    }, "jockel-background-renderer");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+    t.start();
+  }
+
+  /**
+   * Checks if all pages of the site have been generated.
+   *
+   * @return {@code true} if so.
+   */
+  boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Returns the error that caused the last background rendering run to fail, if any.
+   *
+   * @return The error, or {@code null}.
+   */
+  Exception getBackgroundRenderingFailure() {
+    return backgroundRenderingFailure;
+  }
+
+  /**
+   * Renders the generated page at the given path, unless it has already been rendered.
+   *
+   * @param pathInContext The request path.
+   * @throws IOException on error.
+   */
+  void renderIfNecessary(String pathInContext) throws IOException {
+    PageJob job = findPageJob(pathInContext);
+    if (job != null) {
+      job.renderIfNecessary();
+    }
+  }
+
+  private PageJob findPageJob(String pathInContext) {
+    if (pathInContext.endsWith("/")) {
+      return pageJobs.get(new File(webappWorkDir, pathInContext + "index.html").getPath());
+    } else if (pathInContext.endsWith(".html")) {
+      return pageJobs.get(new File(webappWorkDir, pathInContext).getPath());
+    } else if (pathInContext.indexOf('.', pathInContext.lastIndexOf('/') + 1) == -1) {
+      // "/about" may refer to "/about/index.html" or "/about.html"
+      PageJob job = pageJobs.get(new File(webappWorkDir, pathInContext + "/index.html").getPath());
+      if (job == null) {
+        job = pageJobs.get(toHtmlFile(new File(webappWorkDir, pathInContext)).getPath());
+      }
+      return job;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the value of the "Cache-Control" header for the given request path, as configured for
+   * the collection of the corresponding generated page ("cache_control"), or the site-wide default
+   * ("jockel.cache_control").
+   *
+   * @param pathInContext The request path.
+   * @return The header value, or {@code null} if not configured.
+   */
+  String getCacheControl(String pathInContext) {
+    PageJob job = findPageJob(pathInContext);
+    String collectionId = job == null ? null : job.getCollectionId();
+    if (collectionId != null) {
+      Object sc = siteObject.get(collectionId);
+      if (sc instanceof SiteCollection) {
+        String cacheControl = ((SiteCollection) sc).getCacheControl();
+        if (cacheControl != null) {
+          return cacheControl;
+        }
+      }
+    }
+    Object cacheControl = siteObject.getJockelSetting(LiquidVariables.JOCKEL_CACHE_CONTROL);
+    return cacheControl == null ? null : cacheControl.toString();
+  }
+
+  /**
+   * Sets the "ETag" and "Last-Modified" headers for a page that is rendered upon request, and
+   * checks if the client already has the current version, without rendering the page.
+   *
+   * The validators are derived from the site generation and the modification times of the page's
+   * source and of the dependencies recorded during the previous rendering of the page. If the page
+   * has not been rendered before, no validators are set.
+   *
+   * @param req The request.
+   * @param resp The response.
+   * @param markdown {@code true} if the page is a Markdown page.
+   * @param sourcePath The source file.
+   * @param targetFile The target file, as passed to
+   *          {@link #render(boolean, String, Path, File, boolean, HttpServletResponse, String, String, Map)}.
+   * @return {@code true} if "304 Not Modified" has been set, and the page must not be rendered.
+   * @throws IOException on error.
+   */
+  boolean checkNotModified(HttpServletRequest req, HttpServletResponse resp, boolean markdown,
+      Path sourcePath, File targetFile) throws IOException {
+    Set<String> deps = dependencies.getDependencies((markdown ? toHtmlFile(targetFile)
+        : targetFile).getPath());
+    if (deps == null || markdownRoot == null) {
+      return false;
+    }
+
+    long lastModified = Math.max(startTime, Files.getLastModifiedTime(sourcePath).toMillis());
+    for (String dep : deps) {
+      lastModified = Math.max(lastModified, getLastModified(dep));
+    }
+
+    return ConditionalGet.checkNotModified(req, resp, ConditionalGet.etag(lastModified, siteObject
+        .getGeneration()), lastModified);
+  }
+
+  private long getLastModified(String dependency) throws IOException {
+    Path p = markdownRoot.resolve(dependency).normalize();
+    if (!p.startsWith(markdownRoot)) {
+      return 0;
+    } else if (!Files.exists(p) && dependency.startsWith("_data/")) {
+      // data keys are recorded without extension
+      for (String extension : SiteData.DATA_FILE_EXTENSIONS) {
+        Path dataFile = markdownRoot.resolve(dependency + extension);
+        if (Files.exists(dataFile)) {
+          p = dataFile;
+          break;
+        }
+      }
+    }
+
+    if (Files.isDirectory(p)) {
+      // directories (collections) are only scanned once if we are notified of changes within
+      // them (see onChange, which clears the cache); otherwise, a change would go unnoticed
+      int slash = dependency.indexOf('/');
+      boolean cacheable = watchedDirectories.contains(slash == -1 ? dependency : dependency
+          .substring(0, slash));
+      Long time = cacheable ? directoryTimestamps.get(dependency) : null;
+      if (time == null) {
+        try (Stream<Path> stream = Files.walk(p)) {
+          time = stream.mapToLong((f) -> f.toFile().lastModified()).max().orElse(0);
+        }
+        if (cacheable) {
+          directoryTimestamps.put(dependency, time);
+        }
+      }
+      return time;
+    } else {
+      return p.toFile().lastModified();
+    }
+  }
+
+  private String addPage(List<PageJob> jobs, String permalink, URL resourceURL,
+      String relativePath, String collectionId, Map<String, Object> pageVariables,
+      Collection<String> implicitDependencies) {
+    PageJob job = new PageJob(() -> renderMarkdownPage(permalink, resourceURL, relativePath,
+        collectionId, pageVariables, implicitDependencies), collectionId);
+    String target = toHtmlFile(new File(webappWorkDir, permalink.endsWith("/") ? permalink
+        + "index.html" : permalink)).getPath();
+    pageJobs.put(target, job);
+    jobs.add(job);
+    return target;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void createCollectionPages(List<PageJob> jobs) {
     for (String collectionId : ((Map<String, Object>) siteObject.get("collections")).keySet()) {
       SiteCollection sc = (SiteCollection) siteObject.get(collectionId);
       if (!sc.isOutput()) {
         continue;
       }
 
-      List<Map<String, Object>> list = (List<Map<String, Object>>) siteObject.get(collectionId);
-      for (Map<String, Object> l : list) {
-        String permalink = (String) l.get(LiquidVariables.PAGE_PERMALINK);
-        if (permalink == null || permalink.isBlank()) {
+      for (FrontMatterIndex.Entry entry : frontMatterIndex.getEntries(collectionId)) {
+        String parsedPermalink = entry.getPermalink();
+        if (parsedPermalink == null) {
           System.err.println("Skipping entry without permalink");
           continue;
         }
 
-        String relativePath = (String) l.get(CustomSiteVariables.DUMBO_RELATIVE_PATH);
+        String relativePath = entry.getRelativePath();
         if (relativePath == null) {
           System.err.println("Skipping entry without relative path");
           continue;
@@ -160,26 +689,38 @@ final class MarkdownSupportImpl {
           continue;
         }
 
-        try {
-          permalink = PermalinkParser.parsePermalink(permalink, l);
-        } catch (ParseException e) {
-          e.printStackTrace();
-          continue;
-        }
-
-        renderMarkdownPage(permalink, resourceURL, relativePath, collectionId, l);
+        addPage(jobs, parsedPermalink, resourceURL, relativePath, collectionId, entry.getItem(),
+            Collections.emptySet());
       }
     }
   }
 
   private void renderMarkdownPage(String permalink, URL resourceURL, String relativePath,
-      String collectionId, Map<String, Object> pageVariables) throws IOException {
+      String collectionId, Map<String, Object> pageVariables,
+      Collection<String> implicitDependencies) throws IOException {
     if (permalink.endsWith("/")) {
       permalink += "index.html";
     }
     File permalinkFile = new File(webappWorkDir, permalink);
     Files.createDirectories(permalinkFile.getParentFile().toPath());
 
+    File htmlFile = toHtmlFile(permalinkFile);
+
+    String cacheTarget = null;
+    if (renderCache != null) {
+      cacheTarget = webappWorkDir.toPath().relativize(htmlFile.toPath()).toString().replace(
+          File.separatorChar, '/');
+      Set<String> deps = renderCache.restore(cacheTarget, htmlFile);
+      if (deps != null) {
+        LOG.debug("Restored from render cache: {}", htmlFile);
+        precompress(htmlFile.toPath());
+        if (incremental) {
+          dependencies.update(htmlFile.getPath(), deps);
+        }
+        return;
+      }
+    }
+
     String layout = (String) pageVariables.get(LiquidVariables.PAGE_LAYOUT);
 
     Path path;
@@ -189,23 +730,11 @@ final class MarkdownSupportImpl {
       throw new IllegalStateException(e);
     }
 
-    render(true, relativePath, path, permalinkFile, true, null, layout, collectionId, Collections
-        .singletonMap(LiquidVariables.PAGE, pageVariables));
-  }
-
-  private static Collection<?> nullToEmptyCollection(Object obj) {
-    if (obj == null) {
-      return Collections.emptyList();
-    } else if (obj instanceof String) {
-      if (((String) obj).isEmpty()) {
-        return Collections.emptyList();
-      } else {
-        return Collections.singleton(obj);
-      }
-    } else if (obj instanceof Object[]) {
-      return Arrays.asList((Object[]) obj);
-    } else {
-      return ((Collection<?>) obj);
+    Set<String> deps = render(true, relativePath, path, permalinkFile, true, null, layout,
+        collectionId, Collections.singletonMap(LiquidVariables.PAGE, pageVariables),
+        implicitDependencies);
+    if (renderCache != null && deps != null) {
+      renderCache.store(cacheTarget, htmlFile, deps);
     }
   }
 
@@ -214,20 +743,76 @@ final class MarkdownSupportImpl {
     render(false, relativePath, mdPath, targetFile, generateFile, resp, null, null, null);
   }
 
-  @SuppressWarnings({
-      "PMD.NcssCount", "PMD.CognitiveComplexity", "PMD.NPathComplexity",
-      "PMD.CyclomaticComplexity"})
   public void render(boolean markdown, @Nullable String relativePath, Path mdPath, File targetFile,
       boolean generateHtmlFile, @Nullable HttpServletResponse resp, @Nullable String defaultLayout,
       @Nullable String collectionId, Map<String, Object> variablesOverride) throws IOException {
+    render(markdown, relativePath, mdPath, targetFile, generateHtmlFile, resp, defaultLayout,
+        collectionId, variablesOverride, Collections.emptySet());
+  }
 
-    Map<String, Object> variables = new HashMap<>(commonVariables);
+  /**
+   * Renders a page, and records its dependencies if necessary.
+   *
+   * @return The recorded dependencies, or {@code null} if dependencies are not tracked.
+   */
+  private Set<String> render(boolean markdown, @Nullable String relativePath, Path mdPath,
+      File targetFile, boolean generateHtmlFile, @Nullable HttpServletResponse resp,
+      @Nullable String defaultLayout, @Nullable String collectionId,
+      Map<String, Object> variablesOverride, Collection<String> implicitDependencies)
+      throws IOException {
+    // pages rendered upon request are tracked to support conditional requests
+    boolean trackDependencies = (isTrackingDependencies() || resp != null) && targetFile != null;
+    Set<String> previousDependencies = trackDependencies ? DependencyTracker.beginRecording()
+        : null;
+    Set<String> deps = null;
+    try {
+      if (trackDependencies) {
+        if (collectionId != null && relativePath != null) {
+          DependencyTracker.record(relativePath);
+        }
+        implicitDependencies.forEach(DependencyTracker::record);
+      }
+      RenderProfiler.Page page = profiler == null ? null : profiler.beginPage(relativePath != null
+          ? relativePath : String.valueOf(targetFile));
+      try {
+        doRender(markdown, relativePath, mdPath, targetFile, generateHtmlFile, resp,
+            defaultLayout, collectionId, variablesOverride);
+      } finally {
+        if (page != null) {
+          profiler.endPage(page);
+        }
+      }
+    } finally {
+      if (resp == null) {
+        // don't keep per-page state in generator threads
+        RenderState.getThreadLocal().remove();
+      }
+      if (trackDependencies) {
+        deps = DependencyTracker.endRecording(previousDependencies);
+        if (incremental || resp != null) {
+          dependencies.update((markdown ? toHtmlFile(targetFile) : targetFile).getPath(), deps);
+        }
+      }
+    }
+    return deps;
+  }
+
+  @SuppressWarnings({
+      "PMD.NcssCount", "PMD.CognitiveComplexity", "PMD.NPathComplexity",
+      "PMD.CyclomaticComplexity"})
+  private void doRender(boolean markdown, @Nullable String relativePath, Path mdPath,
+      File targetFile, boolean generateHtmlFile, @Nullable HttpServletResponse resp,
+      @Nullable String defaultLayout, @Nullable String collectionId,
+      Map<String, Object> variablesOverride) throws IOException {
+
+    // per-render layer on top of the shared site layer; renders may run concurrently
+    Map<String, Object> variables = new LayeredMap<>(siteLayer);
     if (variablesOverride != null) {
       variables.putAll(variablesOverride);
     }
 
-    @SuppressWarnings("unchecked")
-    Map<String, Object> dumboVariables = (Map<String, Object>) variables.get(LiquidVariables.DUMBO);
+    Map<String, Object> dumboVariables = new HashMap<>();
+    variables.put(LiquidVariables.DUMBO, dumboVariables);
     dumboVariables.put(LiquidVariables.DUMBO_HTMLHEAD,
         com.kohlschutter.dumbo.ExtensionResourceHelper.htmlHead(app));
     dumboVariables.put(LiquidVariables.DUMBO_HTMLBODYTOP,
@@ -240,6 +825,7 @@ final class MarkdownSupportImpl {
     RenderState state = RenderState.get();
     state.setRelativePath(relativePath);
     state.setApp(app);
+    dumboVariables.put(LiquidVariables.DUMBO_STATE, state);
 
     @SuppressWarnings("unchecked")
     Map<String, Object> pageObj = (Map<String, Object>) variables.computeIfAbsent(
@@ -256,7 +842,7 @@ final class MarkdownSupportImpl {
     }
     pageObj.put(LiquidVariables.PAGE_COLLECTION, collectionId);
 
-    liquidMarkdown.setMarkdownEnabledState(markdown);
+    dumboVariables.put(LiquidVariables.DUMBO_MARKDOWN, markdown);
 
     Object liquidObj = liquidMarkdown.getLiquidHelper().prerenderLiquid(PathReaderSupplier
         .withContentsOf(collectionId, relativePath, mdPath, StandardCharsets.UTF_8), mdPath == null
@@ -264,16 +850,10 @@ final class MarkdownSupportImpl {
 
     Document markdownDocument;
     if (markdown) {
+      RenderProfiler.Sample sample = RenderProfiler.start();
       markdownDocument = liquidMarkdown.parseMarkdown(liquidObj);
-
-      String filename = targetFile.getName();
-      int suffix = filename.indexOf('.');
-      if (suffix == -1) {
-        filename += ".html";
-      } else {
-        filename = filename.substring(0, suffix) + ".html";
-      }
-      targetFile = new File(targetFile.getParentFile(), filename);
+      RenderProfiler.stop(sample, "markdown-parse", relativePath);
+      targetFile = toHtmlFile(targetFile);
     } else {
       markdownDocument = null;
     }
@@ -298,42 +878,66 @@ final class MarkdownSupportImpl {
         out = Objects.requireNonNull(mdReloadOut);
       }
 
-      String layoutId0 = YAMLSupport.getVariableAsString(variables, LiquidVariables.PAGE,
+      String layoutId = YAMLSupport.getVariableAsString(variables, LiquidVariables.PAGE,
           LiquidVariables.PAGE_LAYOUT);
-      if (layoutId0 == null && markdown) {
-        layoutId0 = defaultLayout;
+      if (layoutId == null && markdown) {
+        layoutId = defaultLayout;
       }
-      String layoutId = layoutId0;
 
-      try (BufferedReader layoutIn = liquid.layoutReader(layoutId)) {
+      // when streaming, the output is flushed to the client while it is being produced
+      boolean streaming = servletOut != null && streamFlushSize > 0;
+      FlushingAppendable flushingOut = streaming ? new FlushingAppendable(out, servletOut,
+          streamFlushSize) : null;
+      Appendable streamOut = streaming ? flushingOut : out;
+
+      LayoutCache.Chain layoutChain = liquid.getLayoutChain(layoutId);
+      StringHolder contentSupply;
+      if (streaming && markdownDocument != null) {
+        if (layoutChain == null) {
+          // no layout: write the rendered HTML straight to the output
+          renderMarkdown(markdownDocument, streamOut, relativePath);
+          contentSupply = null;
+        } else {
+          // defer rendering, so the beginning of the layout can be sent first
+          contentSupply = StringHolder.withSupplierExpectedLength(markdownDocument
+              .getTextLength(), () -> {
+                try {
+                  flushingOut.flush();
+                } catch (IOException e) {
+                  throw new IllegalStateException(e);
+                }
+                StringHolderSequence seq = StringHolder.newSequence();
+                seq.setExpectedLength(markdownDocument.getTextLength());
+                renderMarkdown(markdownDocument, seq, relativePath);
+                return seq;
+              });
+        }
+      } else {
         // render the main content first
         StringHolderSequence seq = StringHolder.newSequence();
 
         if (markdownDocument != null) {
           seq.setExpectedLength(markdownDocument.getTextLength());
-          liquidMarkdown.render(markdownDocument, seq);
+          renderMarkdown(markdownDocument, seq, relativePath);
         } else {
           seq.append(liquidObj);
         }
+        contentSupply = seq;
+      }
 
-        // // ALTERNATIVE: defer rendering (this causes the outermost layout to be rendered first)
-        // StringHolder contentSupply =
-        // StringHolder.withSupplierExpectedLength(document.getTextLength(), ()->{
-        // StringHolderSequence seq = new StringHolderSequence();
-        // liquidMarkdown.render(document, seq);
-        // return seq;
-        // });
-
-        StringHolder contentSupply = seq;
-
-        if (layoutIn != null) {
-          // the main content has a layout declared
-          StringHolder originalContentSupply = contentSupply;
-          contentSupply = StringHolder.withSupplier(() -> liquid.renderLayout(layoutId, layoutIn,
-              originalContentSupply, variables), IOExceptionHandler.ILLEGAL_STATE);
-        }
+      if (layoutChain != null && streaming) {
+        // the main content has a layout declared; send the outermost layout while it is rendered
+        liquid.renderLayout(layoutChain, contentSupply, variables, streamOut);
+        contentSupply = null;
+      } else if (layoutChain != null) {
+        // the main content has a layout declared
+        StringHolder originalContentSupply = contentSupply;
+        contentSupply = StringHolder.withSupplier(() -> liquid.renderLayout(layoutChain,
+            originalContentSupply, variables), IOExceptionHandler.ILLEGAL_STATE);
+      }
 
-        contentSupply.appendTo(out);
+      if (contentSupply != null) {
+        contentSupply.appendTo(streamOut);
       }
 
       if (out instanceof SuppressErrorsAppendable) {
@@ -355,6 +959,26 @@ final class MarkdownSupportImpl {
     }
   }
 
+  private void renderMarkdown(Document markdownDocument, Appendable out, String relativePath) {
+    RenderProfiler.Sample sample = RenderProfiler.start();
+    try {
+      liquidMarkdown.render(markdownDocument, out);
+    } finally {
+      RenderProfiler.stop(sample, "markdown-render", relativePath);
+    }
+  }
+
+  private static File toHtmlFile(File targetFile) {
+    String filename = targetFile.getName();
+    int suffix = filename.indexOf('.');
+    if (suffix == -1) {
+      filename += ".html";
+    } else {
+      filename = filename.substring(0, suffix) + ".html";
+    }
+    return new File(targetFile.getParentFile(), filename);
+  }
+
   private SuccessfulCloseWriter reloadWriter(File targetFile, boolean generateHtmlFile)
       throws IOException {
     if (targetFile == null) {
@@ -378,6 +1002,7 @@ final class MarkdownSupportImpl {
         protected void onClosed(boolean success) throws IOException {
           if (success && targetFileTmp.renameTo(targetFile)) {
             LOG.debug("renamed successfully: {} ", targetFile);
+            precompress(targetFile.toPath());
           } else {
             LOG.warn("Failed to create {}", targetFile);
             Files.deleteIfExists(targetFileTmp.toPath());
@@ -390,8 +1015,8 @@ final class MarkdownSupportImpl {
   }
 
   @SuppressWarnings({"unchecked", "PMD.CognitiveComplexity", "PMD.NPathComplexity"})
-  private void createArchives(Map<String, Map<String, Map<String, Collection<Object>>>> archivesMap)
-      throws IOException {
+  private void createArchives(Map<String, Map<String, Map<String, Collection<Object>>>> archivesMap,
+      List<PageJob> jobs) {
     Map<String, Object> archivesConfig = (Map<String, Object>) siteObject.get(
         LiquidVariables.JEKYLLARCHIVES);
     if (archivesConfig == null || archivesConfig.isEmpty()) {
@@ -447,6 +1072,10 @@ final class MarkdownSupportImpl {
         pageVariables.put(LiquidVariables.PAGE_TYPE, type);
         pageVariables.put(LiquidVariables.PAGE_NAME, name);
         pageVariables.put(LiquidVariables.PAGE_TITLE, name); // FIXME?
+        String date = archiveDate(type, name);
+        if (date != null) {
+          pageVariables.put(LiquidVariables.PAGE_DATE, date);
+        }
         pageVariables.put(LiquidVariables.PAGE, pageVariables);
 
         String layout = layouts.get(type);
@@ -464,9 +1093,76 @@ final class MarkdownSupportImpl {
         }
         pageVariables.putAll(en.getValue());
 
-        renderMarkdownPage(permalink, null, null, collectionId, pageVariables);
+        // the archive page depends on the front matter of all pages listed
+        Set<String> implicitDependencies = new HashSet<>();
+        for (Collection<Object> items : en.getValue().values()) {
+          for (Object item : items) {
+            Object itemPath = ((Map<String, Object>) item).get(
+                CustomSiteVariables.DUMBO_RELATIVE_PATH);
+            if (itemPath != null) {
+              implicitDependencies.add(itemPath.toString());
+            }
+          }
+        }
+
+        String target = addPage(jobs, permalink, null, null, collectionId, pageVariables,
+            implicitDependencies);
+        archiveItems.put(target, implicitDependencies);
+      }
+    }
+  }
+
+  /**
+   * Adds the year, month and day archives, which are derived from the given day buckets without
+   * iterating over the collection items again.
+   *
+   * @param dayBuckets The collection items by day (newest first), then by collection ID.
+   * @param archives The archives map to add to.
+   */
+  private static void addDateArchives(
+      SortedMap<LocalDate, Map<String, Collection<Object>>> dayBuckets,
+      Map<String, Map<String, Map<String, Collection<Object>>>> archives) {
+    Map<String, Map<String, Collection<Object>>> yearArchives = new LinkedHashMap<>();
+    Map<String, Map<String, Collection<Object>>> monthArchives = new LinkedHashMap<>();
+    Map<String, Map<String, Collection<Object>>> dayArchives = new LinkedHashMap<>();
+
+    for (Map.Entry<LocalDate, Map<String, Collection<Object>>> en : dayBuckets.entrySet()) {
+      LocalDate date = en.getKey();
+      dayArchives.put(date.toString(), en.getValue());
+
+      String month = YearMonth.from(date).toString();
+      String year = String.valueOf(date.getYear());
+      for (Map.Entry<String, Collection<Object>> items : en.getValue().entrySet()) {
+        monthArchives.computeIfAbsent(month, (k) -> new LinkedHashMap<>()).computeIfAbsent(items
+            .getKey(), (id) -> new ArrayList<>()).addAll(items.getValue());
+        yearArchives.computeIfAbsent(year, (k) -> new LinkedHashMap<>()).computeIfAbsent(items
+            .getKey(), (id) -> new ArrayList<>()).addAll(items.getValue());
       }
     }
+
+    archives.put("year", yearArchives);
+    archives.put("month", monthArchives);
+    archives.put("day", dayArchives);
+  }
+
+  /**
+   * Returns the date of a date-based archive page, as expected for the "date" page variable.
+   *
+   * @param type The archive type ("year", "month", "day", etc.)
+   * @param name The archive name (e.g., "2024", "2024-05", "2024-05-31").
+   * @return The date, or {@code null} if the archive type is not date-based.
+   */
+  private static String archiveDate(String type, String name) {
+    switch (type) {
+      case "year":
+        return name + "-01-01";
+      case "month":
+        return name + "-01";
+      case "day":
+        return name;
+      default:
+        return null;
+    }
   }
 
   private static String collectionIdSingular(String k) {
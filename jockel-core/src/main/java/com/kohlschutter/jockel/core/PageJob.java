@@ -0,0 +1,97 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.kohlschutter.jockel.core.GeneratorExecutor.IORunnable;
+
+/**
+ * Generates a single page of the site; the page may be rendered upon request, in the background,
+ * or again after one of its dependencies has changed.
+ *
+ * @author Christian Kohlschütter
+ */
+final class PageJob {
+  private final IORunnable task;
+  private final String collectionId;
+  // not synchronized: rendering does I/O, which would pin virtual threads on Java 21
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile boolean rendered = false;
+
+  PageJob(IORunnable task, String collectionId) {
+    this.task = task;
+    this.collectionId = collectionId;
+  }
+
+  /**
+   * Renders the page, even if it had been rendered before.
+   *
+   * @throws IOException on error.
+   */
+  void render() throws IOException {
+    lock.lock();
+    try {
+      task.run();
+      rendered = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Renders the page, unless it has already been rendered. If the page is currently being rendered
+   * by another thread, waits for it to complete.
+   *
+   * @throws IOException on error.
+   */
+  void renderIfNecessary() throws IOException {
+    if (rendered) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (!rendered) {
+        render();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isRendered() {
+    return rendered;
+  }
+
+  /**
+   * Marks the page as rendered, e.g., when an equivalent page has been rendered before.
+   */
+  void setRendered() {
+    rendered = true;
+  }
+
+  /**
+   * Returns the ID of the collection this page belongs to (or is an archive page of).
+   *
+   * @return The collection ID, or {@code null}.
+   */
+  String getCollectionId() {
+    return collectionId;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+import com.kohlschutter.dumbo.DumboServerImpl;
+import com.kohlschutter.dumbo.ServerApp;
+import com.kohlschutter.util.PathUtil;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the precompressed ("*.gz") variant of generated files to clients that accept gzip
+ * encoding.
+ *
+ * @author Christian Kohlschütter
+ * @see Precompressor
+ */
+public final class PrecompressedFilter extends HttpFilter {
+  private static final long serialVersionUID = 1L;
+  private static final String ENCODING_GZIP = "gzip";
+  private static final Set<String> TEXTUAL_APPLICATION_TYPES = Set.of("application/json",
+      "application/xml", "application/javascript", "application/ecmascript");
+
+  private transient ServletContext servletContext;
+  private transient MarkdownSupportImpl mdSupport;
+  private transient Path webappWorkDir;
+
+  @Override
+  public void init() throws ServletException {
+    this.servletContext = getServletContext();
+    ServerApp app = Objects.requireNonNull(DumboServerImpl.getServerApp(servletContext));
+
+    try {
+      mdSupport = app.getImplementationByIdentity(MarkdownSupportImpl.COMPONENT_IDENTITY,
+          () -> new MarkdownSupportImpl(app));
+    } catch (IOException e) {
+      throw new ServletException(e);
+    }
+    webappWorkDir = app.getWebappWorkDir().toPath();
+  }
+
+  @Override
+  protected void doFilter(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+      throws ServletException, IOException {
+    if (!mdSupport.isPrecompressing() || !checkPrecompressed(req, resp)) {
+      chain.doFilter(req, resp);
+    }
+  }
+
+  private boolean checkPrecompressed(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String method = req.getMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      return false;
+    }
+    if (req.getParameter("reload") != null) {
+      return false;
+    }
+
+    String pathInContext = req.getRequestURI().substring(req.getContextPath().length());
+    if (pathInContext.endsWith("/")) {
+      pathInContext += "index.html";
+    }
+    if (!Precompressor.isCompressible(pathInContext)) {
+      return false;
+    }
+
+    // the response may differ depending on Accept-Encoding, whether we compress this time or not
+    // (a compressed variant may not exist yet, but may be served later)
+    resp.addHeader("Vary", "Accept-Encoding");
+
+    URL resource = servletContext.getResource(pathInContext);
+    if (resource == null) {
+      return false;
+    }
+    Path path = PathUtil.toPathIfPossible(resource);
+    if (path == null || !path.startsWith(webappWorkDir)) {
+      return false;
+    }
+
+    Path gz = Precompressor.findGzipped(path);
+    if (gz == null) {
+      return false;
+    }
+
+    if (!acceptsGzip(req)) {
+      return false;
+    }
+
+    long lastModified = Files.getLastModifiedTime(path).toMillis();
+    if (ConditionalGet.checkNotModified(req, resp, ConditionalGet.etag(lastModified, Files.size(
+        path)), lastModified)) {
+      return true;
+    }
+
+    String mimeType = servletContext.getMimeType(pathInContext);
+    if (mimeType != null) {
+      resp.setContentType(mimeType);
+      if (isTextual(mimeType) && !mimeType.contains(";")) {
+        // generated text files are always UTF-8
+        resp.setCharacterEncoding("UTF-8");
+      }
+    }
+    resp.setHeader("Content-Encoding", ENCODING_GZIP);
+    resp.setContentLengthLong(Files.size(gz));
+
+    if ("GET".equals(method)) {
+      Files.copy(gz, resp.getOutputStream());
+    }
+    return true;
+  }
+
+  /**
+   * Checks if the given MIME type denotes text, which is served with a charset.
+   *
+   * @param mimeType The MIME type.
+   * @return {@code true} if so.
+   */
+  private static boolean isTextual(String mimeType) {
+    String type = mimeType.toLowerCase(Locale.ROOT);
+    int semicolon = type.indexOf(';');
+    if (semicolon != -1) {
+      type = type.substring(0, semicolon).trim();
+    }
+    return type.startsWith("text/") || TEXTUAL_APPLICATION_TYPES.contains(type) || type.endsWith(
+        "+xml") || type.endsWith("+json");
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest req) {
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      if (!ENCODING_GZIP.equals(name) && !"x-gzip".equals(name)) {
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            return Double.parseDouble(param.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+}
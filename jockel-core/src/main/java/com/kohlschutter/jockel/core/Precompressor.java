@@ -0,0 +1,145 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes gzip-compressed siblings ("*.gz") of generated files, so they can be served without
+ * compressing them upon every request.
+ *
+ * @author Christian Kohlschütter
+ * @see PrecompressedFilter
+ */
+final class Precompressor {
+  private static final Logger LOG = LoggerFactory.getLogger(Precompressor.class);
+
+  /**
+   * The suffix of gzip-compressed siblings.
+   */
+  static final String SUFFIX_GZIP = ".gz";
+
+  /**
+   * Files smaller than this are not worth compressing.
+   */
+  private static final long MIN_SIZE = 256;
+
+  private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of("html", "htm", "css", "js",
+      "json", "xml", "txt", "svg", "map");
+
+  private Precompressor() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Checks if the given file name denotes a file that should be precompressed.
+   *
+   * @param fileName The file name.
+   * @return {@code true} if so.
+   */
+  static boolean isCompressible(String fileName) {
+    int dot = fileName.lastIndexOf('.');
+    if (dot == -1 || dot < fileName.lastIndexOf('/')) {
+      return false;
+    }
+    return COMPRESSIBLE_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns the path of the gzip-compressed sibling of the given file.
+   *
+   * @param file The file.
+   * @return The sibling (which may not exist).
+   */
+  static Path gzipSibling(Path file) {
+    return file.resolveSibling(file.getFileName() + SUFFIX_GZIP);
+  }
+
+  /**
+   * Writes the gzip-compressed sibling for the given file, unless an up-to-date version exists
+   * already. Stale siblings of files that are not compressed (anymore) are removed.
+   *
+   * @param file The file to compress.
+   */
+  static void compress(Path file) {
+    Path gz = gzipSibling(file);
+    try {
+      if (!Files.isRegularFile(file) || !isCompressible(file.getFileName().toString()) || Files
+          .size(file) < MIN_SIZE) {
+        Files.deleteIfExists(gz);
+        return;
+      }
+      if (isUpToDate(file, gz)) {
+        return;
+      }
+
+      Path tmp = Files.createTempFile(file.getParent(), ".dumbo", ".tmp");
+      try {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+          Files.copy(file, out);
+        }
+        Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not precompress {}", file, e);
+    }
+  }
+
+  /**
+   * Returns the gzip-compressed sibling of the given file, if it exists and is not older than the
+   * file itself.
+   *
+   * @param file The uncompressed file.
+   * @return The compressed sibling, or {@code null}.
+   */
+  static Path findGzipped(Path file) {
+    Path gz = gzipSibling(file);
+    try {
+      return isUpToDate(file, gz) ? gz : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Removes the gzip-compressed sibling of the given file, if any.
+   *
+   * @param file The uncompressed file.
+   * @throws IOException on error.
+   */
+  static void delete(Path file) throws IOException {
+    Files.deleteIfExists(gzipSibling(file));
+  }
+
+  private static boolean isUpToDate(Path file, Path gz) throws IOException {
+    return Files.isRegularFile(gz) && Files.isRegularFile(file) && Files.getLastModifiedTime(gz)
+        .compareTo(Files.getLastModifiedTime(file)) >= 0;
+  }
+}
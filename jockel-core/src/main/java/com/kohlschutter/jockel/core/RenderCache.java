@@ -0,0 +1,391 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kohlschutter.jockel.core.site.SiteData;
+import com.kohlschutter.util.PathUtil;
+import com.vladsch.flexmark.parser.Parser;
+
+import liqp.Template;
+
+/**
+ * An on-disk cache of generated pages that survives restarts.
+ *
+ * Each generated page is stored under a key that is computed from the contents of everything the
+ * page was rendered from: its source file, its layout chain, includes, data files and iterated
+ * collections (as recorded by {@link DependencyTracker}), as well as the site configuration and the
+ * code that renders it (jockel, liqp, flexmark, the app, and built-in resources). If none of these
+ * have changed, the page can be restored without rendering it again.
+ *
+ * @author Christian Kohlschütter
+ */
+final class RenderCache {
+  private static final Logger LOG = LoggerFactory.getLogger(RenderCache.class);
+  private static final String FORMAT_VERSION = "2";
+  private static final String KEY_TARGET = "target";
+  private static final String KEY_HASH = "key";
+  private static final String KEY_DEPENDENCIES = "dependencies";
+  private static final int MAX_PATH_DEPTH = 64;
+  // defaultConfig.yml is covered by the configuration hash
+  private static final List<String> BUILTIN_RESOURCES = List.of("liqp/seo-template.html");
+
+  private final Path cacheDir;
+  private final Path markdownRoot;
+  private volatile String configHash;
+  private final String buildHash;
+  private final Map<String, String> dependencyHashes = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a new {@link RenderCache}.
+   *
+   * @param cacheDir The directory where cached pages are stored.
+   * @param markdownRoot The "markdown/" directory of the site.
+   * @param appClass The application class (to detect changes of the app's code).
+   * @throws IOException on error.
+   */
+  RenderCache(Path cacheDir, Path markdownRoot, Class<?> appClass) throws IOException {
+    this.cacheDir = cacheDir;
+    this.markdownRoot = markdownRoot;
+    Files.createDirectories(cacheDir.resolve("targets"));
+    Files.createDirectories(cacheDir.resolve("objects"));
+
+    this.configHash = computeConfigHash(markdownRoot);
+    this.buildHash = computeBuildHash(RenderCache.class, Template.class, Parser.class, appClass);
+  }
+
+  /**
+   * Recomputes the hash of the site configuration, and forgets all memoized dependency hashes.
+   * Must be called after "_config.yml" has changed, before restoring any page.
+   *
+   * @throws IOException on error.
+   */
+  void reloadConfig() throws IOException {
+    clearMemo();
+    configHash = computeConfigHash(markdownRoot);
+  }
+
+  /**
+   * Computes a hash of the default configuration and the site's "_config.yml".
+   */
+  private static String computeConfigHash(Path markdownRoot) throws IOException {
+    MessageDigest md = newDigest();
+    URL defaultConfigYml = RenderCache.class.getResource("site/defaultConfig.yml");
+    if (defaultConfigYml != null) {
+      try (InputStream in = defaultConfigYml.openStream()) {
+        md.update(in.readAllBytes());
+      }
+    }
+    md.update(hashPath(markdownRoot.resolve("_config.yml")).getBytes(StandardCharsets.UTF_8));
+    return toHex(md.digest());
+  }
+
+  /**
+   * Computes a hash that identifies the code and built-in resources used for rendering.
+   *
+   * For each class, the version of its package and the location it was loaded from are included;
+   * for a jar file, its size and last-modified time; for a directory, the number of files and their
+   * latest last-modified time. Built-in resources (e.g., the SEO template) are included with their
+   * contents.
+   */
+  private static String computeBuildHash(Class<?>... classes) throws IOException {
+    MessageDigest md = newDigest();
+    for (Class<?> cl : classes) {
+      Package pkg = cl.getPackage();
+      update(md, cl.getName());
+      update(md, String.valueOf(pkg == null ? null : pkg.getImplementationVersion()));
+
+      CodeSource cs = cl.getProtectionDomain().getCodeSource();
+      URL location = cs == null ? null : cs.getLocation();
+      Path p = location == null ? null : PathUtil.toPathIfPossible(location);
+      update(md, String.valueOf(location));
+      if (p == null) {
+        continue;
+      }
+      if (Files.isDirectory(p)) {
+        long count = 0;
+        long lastModified = 0;
+        try (Stream<Path> stream = Files.find(p, MAX_PATH_DEPTH, (path, attr) -> attr
+            .isRegularFile())) {
+          for (Path f : (Iterable<Path>) stream::iterator) {
+            count++;
+            lastModified = Math.max(lastModified, Files.getLastModifiedTime(f).toMillis());
+          }
+        }
+        update(md, count + "/" + lastModified);
+      } else if (Files.isRegularFile(p)) {
+        update(md, Files.size(p) + "/" + Files.getLastModifiedTime(p).toMillis());
+      }
+    }
+    for (String resource : BUILTIN_RESOURCES) {
+      URL url = RenderCache.class.getResource(resource);
+      if (url != null) {
+        try (InputStream in = url.openStream()) {
+          md.update(in.readAllBytes());
+        }
+      }
+    }
+    return toHex(md.digest());
+  }
+
+  /**
+   * Restores a generated page from the cache, if none of its dependencies have changed.
+   *
+   * @param target The path of the page, relative to the webapp work directory.
+   * @param targetFile The file to restore.
+   * @return The dependencies of the restored page, or {@code null} if the page could not be
+   *         restored.
+   */
+  Set<String> restore(String target, File targetFile) {
+    Path manifestFile = manifestFile(target);
+    if (!Files.exists(manifestFile)) {
+      misses.increment();
+      return null;
+    }
+
+    try {
+      Properties manifest = new Properties();
+      try (Reader in = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+        manifest.load(in);
+      }
+      if (!target.equals(manifest.getProperty(KEY_TARGET))) {
+        misses.increment();
+        return null;
+      }
+
+      Set<String> deps = parseDependencies(manifest.getProperty(KEY_DEPENDENCIES));
+      String key = computeKey(target, deps);
+      Path objectFile = objectFile(key);
+      if (!key.equals(manifest.getProperty(KEY_HASH)) || !Files.exists(objectFile)) {
+        misses.increment();
+        return null;
+      }
+
+      // always replace the target: an existing file may be outdated, even if it has the same size
+      Path targetPath = targetFile.toPath();
+      Files.createDirectories(targetPath.getParent());
+      Path tmp = Files.createTempFile(targetPath.getParent(), ".dumbo", ".tmp");
+      Files.copy(objectFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, targetPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      hits.increment();
+      return deps;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Could not restore {} from render cache", target, e);
+      misses.increment();
+      return null;
+    }
+  }
+
+  /**
+   * Stores a freshly generated page in the cache.
+   *
+   * @param target The path of the page, relative to the webapp work directory.
+   * @param targetFile The generated file.
+   * @param dependencies The dependencies of the page.
+   */
+  void store(String target, File targetFile, Set<String> dependencies) {
+    if (!targetFile.exists()) {
+      return;
+    }
+    try {
+      String key = computeKey(target, dependencies);
+
+      Path objectFile = objectFile(key);
+      if (!Files.exists(objectFile)) {
+        Files.createDirectories(objectFile.getParent());
+        Path tmp = Files.createTempFile(objectFile.getParent(), ".dumbo", ".tmp");
+        Files.copy(targetFile.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, objectFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      Properties manifest = new Properties();
+      manifest.setProperty(KEY_TARGET, target);
+      manifest.setProperty(KEY_HASH, key);
+      manifest.setProperty(KEY_DEPENDENCIES, String.join("\n", new TreeSet<>(dependencies)));
+
+      Path manifestFile = manifestFile(target);
+      Path tmp = Files.createTempFile(manifestFile.getParent(), ".dumbo", ".tmp");
+      try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        manifest.store(out, null);
+      }
+      Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Could not store {} in render cache", target, e);
+    }
+  }
+
+  /**
+   * Forgets all memoized dependency hashes; must be called when site resources have changed.
+   */
+  void clearMemo() {
+    dependencyHashes.clear();
+  }
+
+  /**
+   * Logs the number of cache hits and misses.
+   */
+  void logStatistics() {
+    LOG.info("Render cache: {} hits, {} misses", hits.sum(), misses.sum());
+  }
+
+  private static Set<String> parseDependencies(String s) {
+    if (s == null || s.isEmpty()) {
+      return Collections.emptySet();
+    }
+    return new HashSet<>(Arrays.asList(s.split("\n")));
+  }
+
+  private String computeKey(String target, Set<String> dependencies) throws IOException {
+    MessageDigest md = newDigest();
+    update(md, FORMAT_VERSION);
+    update(md, target);
+    update(md, configHash);
+    update(md, buildHash);
+    for (String dep : new TreeSet<>(dependencies)) {
+      update(md, dep);
+      update(md, dependencyHash(dep));
+    }
+    return toHex(md.digest());
+  }
+
+  private String dependencyHash(String dep) throws IOException {
+    String hash = dependencyHashes.get(dep);
+    if (hash == null) {
+      Path p = markdownRoot.resolve(dep).normalize();
+      if (!p.startsWith(markdownRoot)) {
+        hash = "";
+      } else if (dep.endsWith("/")) {
+        // the order of collection items: only the names of the files matter
+        hash = hashListing(p);
+      } else if (!Files.exists(p) && dep.startsWith("_data/")) {
+        // data keys are recorded without extension; resolve them like SiteData does
+        hash = "-";
+        for (String extension : SiteData.DATA_FILE_EXTENSIONS) {
+          Path dataFile = markdownRoot.resolve(dep + extension);
+          if (Files.exists(dataFile)) {
+            hash = extension + ":" + hashPath(dataFile);
+            break;
+          }
+        }
+      } else {
+        hash = hashPath(p);
+      }
+      dependencyHashes.put(dep, hash);
+    }
+    return hash;
+  }
+
+  private static String hashListing(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return "-";
+    }
+    MessageDigest md = newDigest();
+    try (Stream<Path> stream = Files.find(dir, MAX_PATH_DEPTH, (path, attr) -> attr
+        .isRegularFile())) {
+      for (Path f : stream.sorted().collect(Collectors.toList())) {
+        update(md, dir.relativize(f).toString());
+      }
+    }
+    return toHex(md.digest());
+  }
+
+  private static String hashPath(Path p) throws IOException {
+    if (Files.isDirectory(p)) {
+      List<Path> files;
+      try (Stream<Path> stream = Files.find(p, MAX_PATH_DEPTH, (path, attr) -> attr
+          .isRegularFile())) {
+        files = stream.sorted().collect(Collectors.toList());
+      }
+      MessageDigest md = newDigest();
+      for (Path f : files) {
+        update(md, p.relativize(f).toString());
+        md.update(Files.readAllBytes(f));
+      }
+      return toHex(md.digest());
+    } else if (Files.isRegularFile(p)) {
+      return toHex(newDigest().digest(Files.readAllBytes(p)));
+    } else {
+      return "-";
+    }
+  }
+
+  private Path manifestFile(String target) {
+    return cacheDir.resolve("targets").resolve(toHex(newDigest().digest(target.getBytes(
+        StandardCharsets.UTF_8))) + ".properties");
+  }
+
+  private Path objectFile(String key) {
+    return cacheDir.resolve("objects").resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in instrumentation that attributes wall time and allocated bytes to the phases of rendering
+ * a page (front matter, Liquid, Markdown, layouts, includes, expensive tags and filters).
+ *
+ * Measurements are only taken while a page is being profiled in the current thread (see
+ * {@link #beginPage(String)}); otherwise {@link #start()} returns {@code null}, and
+ * {@link #stop(Sample, String, String)} does nothing.
+ *
+ * Times are inclusive: the time spent in an include is also attributed to the layout that
+ * includes it. Allocations are only measured where the JVM supports it (not for virtual threads).
+ *
+ * @author Christian Kohlschütter
+ */
+public final class RenderProfiler {
+  private static final Logger LOG = LoggerFactory.getLogger(RenderProfiler.class);
+  private static final ThreadLocal<RenderProfiler> TL_PROFILER = new ThreadLocal<>();
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = initThreadMXBean();
+
+  private final Map<String, Stats> templates = new ConcurrentHashMap<>();
+  private final Map<String, Stats> pages = new ConcurrentHashMap<>();
+
+  /**
+   * A started measurement.
+   */
+  public static final class Sample {
+    private final RenderProfiler profiler;
+    private final long startNanos;
+    private final long startBytes;
+
+    private Sample(RenderProfiler profiler) {
+      this.profiler = profiler;
+      this.startBytes = allocatedBytes();
+      this.startNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * A page being profiled; see {@link #beginPage(String)}.
+   */
+  static final class Page {
+    private final RenderProfiler previous;
+    private final String name;
+    private final Sample sample;
+
+    private Page(RenderProfiler previous, String name, Sample sample) {
+      this.previous = previous;
+      this.name = name;
+      this.sample = sample;
+    }
+  }
+
+  /**
+   * Aggregated measurements for one page or template.
+   */
+  private static final class Stats {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytes = new LongAdder();
+
+    Stats(String name) {
+      this.name = name;
+    }
+
+    void add(long elapsedNanos, long allocatedBytes) {
+      count.increment();
+      nanos.add(elapsedNanos);
+      maxNanos.accumulate(elapsedNanos);
+      if (allocatedBytes > 0) {
+        bytes.add(allocatedBytes);
+      }
+    }
+  }
+
+  private static com.sun.management.ThreadMXBean initThreadMXBean() {
+    try {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (sunBean.isThreadAllocatedMemorySupported() && sunBean
+            .isThreadAllocatedMemoryEnabled()) {
+          return sunBean;
+        }
+      }
+    } catch (RuntimeException | LinkageError e) {
+      // ignore
+    }
+    return null;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long allocatedBytes() {
+    if (THREAD_MX_BEAN == null) {
+      return -1;
+    }
+    // getId() rather than threadId(): we target Java 11
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Starts profiling a page in the current thread.
+   *
+   * @param page The page (e.g., the generated file).
+   * @return The page, to be passed to {@link #endPage(Page)}.
+   */
+  Page beginPage(String page) {
+    RenderProfiler previous = TL_PROFILER.get();
+    TL_PROFILER.set(this);
+    return new Page(previous, page, new Sample(this));
+  }
+
+  /**
+   * Stops profiling a page in the current thread, and restores the previous state.
+   *
+   * @param page The value returned by {@link #beginPage(String)}.
+   */
+  void endPage(Page page) {
+    record(pages, page.name, page.sample);
+
+    if (page.previous == null) {
+      TL_PROFILER.remove();
+    } else {
+      TL_PROFILER.set(page.previous);
+    }
+  }
+
+  /**
+   * Starts a measurement, if a page is being profiled in the current thread.
+   *
+   * @return The sample, or {@code null} if profiling is not active.
+   */
+  public static Sample start() {
+    RenderProfiler profiler = TL_PROFILER.get();
+    return profiler == null ? null : new Sample(profiler);
+  }
+
+  /**
+   * Stops a measurement, and attributes it to the given template or phase.
+   *
+   * @param sample The sample returned by {@link #start()} (may be {@code null}).
+   * @param category The category (e.g., "layout", "include", "filter").
+   * @param name The name within that category (e.g., the template path).
+   */
+  public static void stop(Sample sample, String category, String name) {
+    if (sample != null) {
+      sample.profiler.record(sample.profiler.templates, category + " " + name, sample);
+    }
+  }
+
+  private void record(Map<String, Stats> map, String name, Sample sample) {
+    long elapsed = System.nanoTime() - sample.startNanos;
+    long bytes = sample.startBytes < 0 ? -1 : allocatedBytes() - sample.startBytes;
+    map.computeIfAbsent(name, Stats::new).add(elapsed, bytes);
+  }
+
+  /**
+   * Writes a report listing the slowest pages and templates.
+   *
+   * @param out The target.
+   * @param limit The maximum number of entries per section.
+   * @throws IOException on error.
+   */
+  void writeReport(Writer out, int limit) throws IOException {
+    PrintWriter pw = new PrintWriter(out);
+    pw.println("# Slowest pages (inclusive wall time)");
+    writeSection(pw, pages, limit);
+    pw.println();
+    pw.println("# Slowest templates and phases (inclusive wall time)");
+    writeSection(pw, templates, limit);
+    pw.flush();
+  }
+
+  private static void writeSection(PrintWriter pw, Map<String, Stats> map, int limit) {
+    List<Stats> list = new ArrayList<>(map.values());
+    list.sort(Comparator.comparingLong((Stats s) -> s.nanos.sum()).reversed());
+    pw.println(String.format(Locale.ENGLISH, "%12s %8s %10s %10s %12s  %s", "total ms", "count",
+        "avg ms", "max ms", "alloc KiB", "name"));
+    int n = 0;
+    for (Stats s : list) {
+      if (n++ >= limit) {
+        break;
+      }
+      long count = s.count.sum();
+      long nanos = s.nanos.sum();
+      pw.println(String.format(Locale.ENGLISH, "%12.1f %8d %10.2f %10.2f %12d  %s", nanos / 1e6,
+          count, count == 0 ? 0 : nanos / 1e6 / count, s.maxNanos.get() / 1e6, s.bytes.sum()
+              / 1024, s.name));
+    }
+  }
+
+  /**
+   * Logs a short report, and writes the full report to the given file.
+   *
+   * @param reportFile The report file.
+   */
+  void report(Path reportFile) {
+    if (LOG.isInfoEnabled()) {
+      StringWriter sw = new StringWriter();
+      try {
+        writeReport(sw, 10);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      LOG.info("Render profile:\n{}", sw);
+    }
+    try (Writer out = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+      writeReport(out, Integer.MAX_VALUE);
+      LOG.info("Render profile written to {}", reportFile);
+    } catch (IOException e) {
+      LOG.warn("Could not write render profile to {}", reportFile, e);
+    }
+  }
+}
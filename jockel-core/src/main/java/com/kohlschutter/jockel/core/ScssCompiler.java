@@ -134,6 +134,20 @@ final class ScssCompiler implements Closeable {
     return sw.toString();
   }
 
+  /**
+   * Starts the bundled Sass compiler once, so the cost of locating (and, if necessary, extracting)
+   * its executable is not paid when the first stylesheet is requested.
+   *
+   * @throws IOException on error.
+   */
+  static void warmUp() throws IOException {
+    try (SassCompiler sc = SassCompilerFactory.bundled()) {
+      sc.compileScssString("a{b:c}");
+    } catch (SassCompilationFailedException e) {
+      throw new IOException("Cannot start Sass compiler: " + e.getMessage(), e);
+    }
+  }
+
   public void compile(String relativePath, Path scssPath, Path generatedCssPath)
       throws IOException {
     PathUtil.createAncestorDirectories(generatedCssPath);
@@ -160,6 +174,8 @@ final class ScssCompiler implements Closeable {
       try (BufferedWriter out = Files.newBufferedWriter(sourceMapPath)) {
         out.write(cs.getSourceMap());
       }
+      mdSupport.precompress(generatedCssPath);
+      mdSupport.precompress(sourceMapPath);
       // FIXME need to copy the source files to the sourcemap folder
     } catch (SassCompilationFailedException e) {
       throw new IOException("Cannot compile scss: " + scssPath + ": " + e.getMessage(), e);
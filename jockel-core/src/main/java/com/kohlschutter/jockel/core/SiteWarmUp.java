@@ -0,0 +1,222 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kohlschutter.dumbo.ServerApp;
+import com.kohlschutter.util.PathUtil;
+
+import liqp.Template;
+
+/**
+ * An optional warm-up pass that runs before the site is served.
+ *
+ * Layouts and includes are parsed (in parallel) into their respective caches, the {@code _sass}
+ * partials are read, and flexmark, the Sass compiler and the Liquid filters are exercised once, so
+ * the first request for any page does not pay for parsing and class loading. Template errors found
+ * along the way (including templates that cannot be parsed at all) are collected into a single
+ * report, instead of only showing up when a page happens to use the broken template.
+ *
+ * @author Christian Kohlschütter
+ */
+final class SiteWarmUp {
+  private static final Logger LOG = LoggerFactory.getLogger(SiteWarmUp.class);
+  private static final int MAX_PATH_DEPTH = 64;
+
+  private static final String MARKDOWN_SAMPLE = "# Warm-up\n\n*Lorem* **ipsum** `dolor` "
+      + "[sit](amet.html){: .consectetur}\n\n- adipiscing\n- elit\n\n> sed do\n";
+
+  private static final String FILTERS_SAMPLE = "{{ \"*lorem* ipsum\" | markdownify"
+      + " | slugify | number_of_words }}{{ \"2024-01-01 12:34:56\" | date_to_xmlschema }}"
+      + "{{ list | jsonify }}{{ list | sort | join: \", \" | upcase | escape | append: \"!\""
+      + " | size }}";
+
+  private final ServerApp app;
+  private final LiquidHelper liquid;
+  private final MarkdownHelper markdown;
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * A warm-up step.
+   */
+  @FunctionalInterface
+  private interface Step {
+    /**
+     * Runs the step.
+     *
+     * @param executor The executor to submit parallel tasks to.
+     * @return The number of items processed.
+     * @throws IOException on error.
+     */
+    int run(GeneratorExecutor executor) throws IOException;
+  }
+
+  SiteWarmUp(ServerApp app, LiquidHelper liquid, MarkdownHelper markdown) {
+    this.app = app;
+    this.liquid = liquid;
+    this.markdown = markdown;
+  }
+
+  /**
+   * Runs all warm-up steps, logs how long each of them took, and reports any template errors.
+   *
+   * @param executor The executor to run parallel tasks with (configured like the one used for site
+   *          generation).
+   */
+  void run(GeneratorExecutor executor) {
+    long time = System.nanoTime();
+    step("layouts", executor, this::warmUpLayouts);
+    step("includes", executor, this::warmUpIncludes);
+    step("sass partials", executor, this::warmUpSass);
+    step("markdown", executor, this::warmUpMarkdown);
+    step("filters", executor, this::warmUpFilters);
+    LOG.info("Warm-up completed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+        - time));
+
+    List<String> report;
+    synchronized (errors) {
+      report = new ArrayList<>(errors);
+    }
+    if (!report.isEmpty() && LOG.isWarnEnabled()) {
+      Collections.sort(report);
+      LOG.warn("Warm-up found {} error(s):\n  {}", report.size(), String.join("\n  ", report));
+    }
+  }
+
+  private void step(String name, GeneratorExecutor executor, Step step) {
+    long time = System.nanoTime();
+    int count;
+    try {
+      count = step.run(executor);
+      executor.awaitCompletion();
+    } catch (IOException | RuntimeException e) {
+      errors.add(name + ": " + e);
+      return;
+    }
+    LOG.info("Warm-up: {} {} in {} ms", count, name, TimeUnit.NANOSECONDS.toMillis(System
+        .nanoTime() - time));
+  }
+
+  private int warmUpLayouts(GeneratorExecutor executor) throws IOException {
+    List<String> files = listFiles("_layouts", false).stream().filter((f) -> f.endsWith(".html"))
+        .collect(Collectors.toList());
+    for (String file : files) {
+      String layoutId = file.substring(0, file.length() - ".html".length());
+      executor.submit(() -> {
+        try {
+          liquid.preloadLayout(layoutId);
+        } catch (IOException | RuntimeException e) {
+          errors.add("_layouts/" + file + ": " + e);
+        }
+      });
+    }
+    return files.size();
+  }
+
+  private int warmUpIncludes(GeneratorExecutor executor) throws IOException {
+    List<String> files = listFiles("_includes", true);
+    for (String file : files) {
+      executor.submit(() -> {
+        try {
+          liquid.preloadInclude(file);
+        } catch (IOException | RuntimeException e) {
+          errors.add("_includes/" + file + ": " + e);
+        }
+      });
+    }
+    return files.size();
+  }
+
+  private int warmUpSass(GeneratorExecutor executor) throws IOException {
+    List<String> files = listFiles("_sass", true);
+    Path sassDir = resolveDirectory("_sass");
+    for (String file : files) {
+      // partials only make sense in the context of the stylesheet that imports them, so we just
+      // pull them into the file system cache
+      executor.submit(() -> Files.readAllBytes(sassDir.resolve(file)));
+    }
+    if (!files.isEmpty()) {
+      executor.submit(ScssCompiler::warmUp);
+    }
+    return files.size();
+  }
+
+  private int warmUpMarkdown(GeneratorExecutor executor) throws IOException {
+    markdown.render(markdown.parseMarkdown(MARKDOWN_SAMPLE), new StringBuilder());
+    return 1;
+  }
+
+  private int warmUpFilters(GeneratorExecutor executor) {
+    Template template = liquid.getParser().parse(FILTERS_SAMPLE);
+    String rendered = String.valueOf(template.renderToObject(Map.of("list", Arrays.asList("b", "a",
+        "c"))));
+    LOG.debug("Warm-up filters: {}", rendered);
+    addErrors("(filters)", template.errors());
+    return 1;
+  }
+
+  private void addErrors(String source, List<Exception> list) {
+    if (list == null) {
+      return;
+    }
+    for (Exception e : list) {
+      errors.add(source + ": " + e);
+    }
+  }
+
+  private Path resolveDirectory(String dir) {
+    URL url = app.getResource("markdown/" + dir + "/");
+    Path path = url == null ? null : PathUtil.toPathIfPossible(url);
+    return path == null || !Files.isDirectory(path) ? null : path;
+  }
+
+  /**
+   * Lists the regular files in the given site directory.
+   *
+   * @param dir The directory, relative to "markdown/".
+   * @param recursive If {@code true}, also list files in subdirectories.
+   * @return The sorted list of paths, relative to the directory.
+   * @throws IOException on error.
+   */
+  private List<String> listFiles(String dir, boolean recursive) throws IOException {
+    Path path = resolveDirectory(dir);
+    if (path == null) {
+      return Collections.emptyList();
+    }
+    try (Stream<Path> stream = Files.find(path, recursive ? MAX_PATH_DEPTH : 1, (p, attr) -> attr
+        .isRegularFile())) {
+      return stream.map((p) -> path.relativize(p).toString().replace('\\', '/')).sorted().collect(
+          Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates worker threads for site generation.
+ *
+ * This is the Java 11 version; a version supporting virtual threads is provided for Java 21 or
+ * newer (multi-release jar).
+ *
+ * @author Christian Kohlschütter
+ */
+final class ThreadSupport {
+  private ThreadSupport() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * Checks if virtual threads are supported by this runtime.
+   *
+   * @return {@code true} if so.
+   */
+  static boolean isVirtualThreadSupported() {
+    return false;
+  }
+
+  /**
+   * Creates a new {@link ExecutorService}.
+   *
+   * @param namePrefix The prefix of the thread names.
+   * @param parallelism The number of platform threads.
+   * @param threadPriority The priority of the platform threads.
+   * @param virtual If {@code true}, and supported, use one virtual thread per task instead of a
+   *          pool of platform threads.
+   * @return The executor service.
+   */
+  static ExecutorService newExecutor(String namePrefix, int parallelism, int threadPriority,
+      boolean virtual) {
+    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(parallelism, (r) -> {
+      Thread t = new Thread(r, namePrefix + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      t.setPriority(threadPriority);
+      t.setContextClassLoader(cl);
+      return t;
+    });
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import liqp.TemplateContext;
+import liqp.blocks.Block;
+import liqp.nodes.AtomNode;
+import liqp.nodes.LNode;
+
+/**
+ * The "cache" block: {@code {% cache key ... %}...{% endcache %}}.
+ *
+ * Renders its content once per distinct combination of key values and site generation, and reuses
+ * the output everywhere else; see {@link FragmentCache}. Keys are simple expressions (quoted
+ * strings, numbers, variable lookups like {@code page.lang}).
+ *
+ * The content must only depend on the key values; keys are shared by all templates of the site.
+ * At least one key is required, e.g., {@code {% cache "navigation" %}}; otherwise, all such blocks
+ * would share the same fragment.
+ *
+ * @author Christian Kohlschütter
+ */
+public class CacheBlock extends Block {
+  private final FragmentCache cache;
+
+  public CacheBlock(FragmentCache cache) {
+    super("cache");
+    this.cache = cache;
+  }
+
+  @Override
+  public Object render(TemplateContext context, LNode... nodes) {
+    LNode block = nodes[nodes.length - 1];
+
+    List<Object> key = new ArrayList<>();
+    key.add(name);
+    if (nodes.length > 1 && nodes[0] instanceof AtomNode) {
+      for (Object token : FragmentCache.tokenize(String.valueOf(nodes[0].render(context)))) {
+        if (token instanceof String[]) {
+          String[] nv = (String[]) token;
+          key.add(nv[0]);
+          key.add(FragmentCache.evaluate(nv[1], context));
+        } else {
+          key.add(FragmentCache.evaluate((String) token, context));
+        }
+      }
+    }
+    if (key.size() == 1) {
+      throw new IllegalStateException("cache: missing key");
+    }
+
+    return cache.get(context, key, () -> super.asString(block.render(context), context));
+  }
+}
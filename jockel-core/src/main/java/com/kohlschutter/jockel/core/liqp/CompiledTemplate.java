@@ -0,0 +1,403 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kohlschutter.stringhold.StringHolder;
+
+import liqp.Insertion;
+import liqp.LValue;
+import liqp.PlainBigDecimal;
+import liqp.RenderTransformer;
+import liqp.RenderTransformer.ObjectAppender;
+import liqp.Template;
+import liqp.TemplateContext;
+import liqp.TemplateParser;
+import liqp.nodes.AtomNode;
+import liqp.nodes.BlockNode;
+import liqp.nodes.FilterNode;
+import liqp.nodes.InsertionNode;
+import liqp.nodes.LNode;
+import liqp.nodes.OutputNode;
+import liqp.parser.v4.NodeVisitor;
+import liqp.spi.BasicTypesSupport;
+
+/**
+ * A liqp {@link Template} compiled into a tree of closures.
+ *
+ * liqp builds a fresh node tree from the ANTLR parse tree every time a template is rendered, and
+ * then interprets it. A {@link CompiledTemplate} builds that tree once, and compiles it:
+ * <ul>
+ * <li>blocks, including the bodies of nested blocks such as {@code if}, {@code for},
+ * {@code unless}, {@code case}, are replaced by closures that render their compiled children
+ * directly, with adjacent static text folded into a single constant,</li>
+ * <li>output tags ({@code {{ ... }}}) are replaced by closures that evaluate the expression and
+ * apply the filters, without liqp's per-node bookkeeping.</li>
+ * </ul>
+ * Any other node (tags, expressions, etc.) is kept as-is, i.e., it falls back to being interpreted
+ * by liqp, and templates that cannot be compiled at all are rendered by liqp as usual.
+ *
+ * Besides rendering to an object (like liqp does), the top-level nodes of a compiled template can
+ * be rendered directly to an {@link Appendable}, see
+ * {@link #renderTo(Map, TemplateContext, Appendable, List)}.
+ *
+ * Unlike liqp {@link Template}s, a {@link CompiledTemplate} keeps no per-render state, and can
+ * therefore be rendered concurrently.
+ *
+ * Compilation is opt-in per {@link TemplateParser}, see {@link #setEnabled(TemplateParser,
+ * boolean)}.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class CompiledTemplate {
+  private static final Logger LOG = LoggerFactory.getLogger(CompiledTemplate.class);
+
+  private static final Map<TemplateParser, Boolean> ENABLED = Collections.synchronizedMap(
+      new WeakHashMap<>());
+
+  // liqp does not expose the parts of these nodes; without them, the nodes are interpreted
+  private static final Field INSERTION_NODE_INSERTION = getField(InsertionNode.class, "insertion");
+  private static final Field INSERTION_NODE_TOKENS = getField(InsertionNode.class, "tokens");
+  private static final Field OUTPUT_NODE_EXPRESSION = getField(OutputNode.class, "expression");
+  private static final Field OUTPUT_NODE_FILTERS = getField(OutputNode.class, "filters");
+  private static final Field OUTPUT_NODE_UNPARSED = getField(OutputNode.class, "unparsed");
+
+  private final TemplateParser parser;
+  private final CompiledBlock root;
+
+  private CompiledTemplate(TemplateParser parser, CompiledBlock root) {
+    this.parser = parser;
+    this.root = root;
+  }
+
+  /**
+   * Enables or disables template compilation for templates parsed by the given parser.
+   *
+   * @param parser The parser.
+   * @param enabled {@code true} if templates should be compiled.
+   */
+  public static void setEnabled(TemplateParser parser, boolean enabled) {
+    if (enabled) {
+      ENABLED.put(parser, Boolean.TRUE);
+    } else {
+      ENABLED.remove(parser);
+    }
+  }
+
+  /**
+   * Checks if template compilation is enabled for templates parsed by the given parser.
+   *
+   * @param parser The parser.
+   * @return {@code true} if enabled.
+   */
+  public static boolean isEnabled(TemplateParser parser) {
+    return ENABLED.containsKey(parser);
+  }
+
+  /**
+   * Compiles the given template.
+   *
+   * @param parser The parser that parsed the template.
+   * @param template The template.
+   * @return The compiled template, or {@code null} if the template cannot be compiled (in which
+   *         case it should be rendered by liqp).
+   */
+  public static CompiledTemplate compile(TemplateParser parser, Template template) {
+    try {
+      LNode root = new NodeVisitor(parser.insertions, parser.filters, parser.liquidStyleInclude)
+          .visit(template.getParseTree());
+      if (!(root instanceof BlockNode)) {
+        return null;
+      }
+      return new CompiledTemplate(parser, compileBlock(((BlockNode) root).getChildren()));
+    } catch (RuntimeException | LinkageError e) {
+      LOG.debug("Cannot compile template; falling back to liqp", e);
+      return null;
+    }
+  }
+
+  private static Field getField(Class<?> klazz, String name) {
+    try {
+      Field f = klazz.getDeclaredField(name);
+      f.setAccessible(true);
+      return f;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug("Cannot access {}.{}; such nodes are not compiled", klazz.getName(), name, e);
+      return null;
+    }
+  }
+
+  private static Object getFieldValue(Field f, Object obj) {
+    if (f == null) {
+      return null;
+    }
+    try {
+      return f.get(obj);
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static LNode compileNode(LNode node) {
+    if (node instanceof BlockNode) {
+      return compileBlock(((BlockNode) node).getChildren());
+    } else if (node instanceof AtomNode) {
+      // an AtomNode's value does not depend on the context
+      Object value = node.render(null);
+      return (context) -> value;
+    } else if (node instanceof OutputNode) {
+      return compileOutput((OutputNode) node);
+    } else if (node instanceof InsertionNode) {
+      return compileInsertion((InsertionNode) node);
+    } else {
+      // not supported; interpreted by liqp
+      return node;
+    }
+  }
+
+  private static CompiledBlock compileBlock(List<LNode> children) {
+    CompiledBlock block = new CompiledBlock();
+    StringBuilder text = null;
+    for (LNode child : children) {
+      Object value = (child instanceof AtomNode) ? child.render(null) : null;
+      if (value instanceof String) {
+        if (text == null) {
+          text = new StringBuilder();
+        }
+        text.append((String) value);
+        continue;
+      }
+      if (text != null) {
+        block.add(constant(text.toString()));
+        text = null;
+      }
+      block.add(compileNode(child));
+    }
+    if (text != null) {
+      block.add(constant(text.toString()));
+    }
+    block.seal();
+    return block;
+  }
+
+  /**
+   * Compiles an output tag, unless liqp would report it as an error.
+   */
+  @SuppressWarnings("unchecked")
+  private static LNode compileOutput(OutputNode node) {
+    LNode expression = (LNode) getFieldValue(OUTPUT_NODE_EXPRESSION, node);
+    List<FilterNode> filters = (List<FilterNode>) getFieldValue(OUTPUT_NODE_FILTERS, node);
+    String unparsed = (String) getFieldValue(OUTPUT_NODE_UNPARSED, node);
+    if (expression == null || filters == null || (unparsed != null && !unparsed.isBlank())) {
+      return node;
+    }
+    LNode compiledExpression = compileNode(expression);
+    FilterNode[] filterNodes = filters.toArray(new FilterNode[0]);
+    return (context) -> {
+      Object value = compiledExpression.render(context);
+      for (FilterNode filter : filterNodes) {
+        value = filter.apply(value, context);
+      }
+      if (value instanceof BigDecimal && !(value instanceof PlainBigDecimal)) {
+        value = new PlainBigDecimal(value.toString());
+      }
+      return value;
+    };
+  }
+
+  /**
+   * Compiles the blocks (bodies) of a tag, such as the branches of an {@code if}. The tag itself,
+   * and its other parameters, are interpreted by liqp.
+   */
+  private static LNode compileInsertion(InsertionNode node) {
+    Insertion insertion = (Insertion) getFieldValue(INSERTION_NODE_INSERTION, node);
+    LNode[] tokens = (LNode[]) getFieldValue(INSERTION_NODE_TOKENS, node);
+    if (insertion == null || tokens == null) {
+      return node;
+    }
+    LNode[] compiled = null;
+    for (int i = 0; i < tokens.length; i++) {
+      if (tokens[i] instanceof BlockNode) {
+        if (compiled == null) {
+          compiled = tokens.clone();
+        }
+        compiled[i] = compileBlock(((BlockNode) tokens[i]).getChildren());
+      }
+    }
+    return compiled == null ? node : new InsertionNode(insertion, compiled);
+  }
+
+  private static LNode constant(String s) {
+    return (context) -> s;
+  }
+
+  /**
+   * A compiled block.
+   *
+   * This is still a {@link BlockNode}, since some liqp blocks (e.g., {@code for}, {@code case})
+   * check for, or iterate over the children of {@link BlockNode}s directly.
+   */
+  private static final class CompiledBlock extends BlockNode {
+    private LNode[] nodes;
+
+    void seal() {
+      nodes = getChildren().toArray(new LNode[0]);
+    }
+
+    @Override
+    public Object render(TemplateContext context) {
+      ObjectAppender.Controller appender = context.newObjectAppender(nodes.length);
+      for (LNode node : nodes) {
+        Object value = node.render(context);
+        if (value == null) {
+          continue;
+        } else if (value == LValue.BREAK || value == LValue.CONTINUE) {
+          return value;
+        } else if (value instanceof List) {
+          for (Object obj : (List<?>) value) {
+            appender.append(postprocess(obj, context));
+          }
+        } else if (value.getClass().isArray()) {
+          for (Object obj : (Object[]) value) {
+            appender.append(postprocess(obj, context));
+          }
+        } else {
+          appender.append(postprocess(value, context));
+        }
+      }
+      return appender.getResult();
+    }
+  }
+
+  private static Object postprocess(Object value, TemplateContext context) {
+    if (LValue.isTemporal(value)) {
+      return LValue.rubyDateTimeFormat.format(LValue.asRubyDate(value, context));
+    } else {
+      return value;
+    }
+  }
+
+  private TemplateContext newContext(Map<String, Object> variables, TemplateContext parent) {
+    BasicTypesSupport.clearReferences();
+    Map<String, Object> evaluated = parser.evaluate(parser.mapper, variables);
+
+    TemplateContext context;
+    if (parent == null) {
+      context = new TemplateContext(parser, evaluated);
+      Consumer<Map<String, Object>> configurator = parser.getEnvironmentMapConfigurator();
+      if (configurator != null) {
+        configurator.accept(context.getEnvironmentMap());
+      }
+    } else {
+      context = parent.newChildContext(evaluated);
+    }
+    // NOTE: our templates are parsed from strings, so there's no root folder to register
+    return context;
+  }
+
+  /**
+   * Renders this template, just like {@link Template#renderToObjectUnguarded(Map, TemplateContext,
+   * boolean)} does.
+   *
+   * @param variables The variables.
+   * @param parent The parent context (e.g., when rendering an include), or {@code null}.
+   * @param errors If not {@code null}, receives the errors reported during rendering.
+   * @return The rendered object.
+   */
+  public Object render(Map<String, Object> variables, TemplateContext parent,
+      List<Exception> errors) {
+    TemplateContext context = newContext(variables, parent);
+    Object result = parser.getRenderTransformer().transformObject(context, root.render(context));
+    if (errors != null) {
+      errors.addAll(context.errors());
+    }
+    return result;
+  }
+
+  /**
+   * Renders this template directly to the given {@link Appendable}.
+   *
+   * Each top-level node is appended as soon as it has been rendered, so the beginning of the output
+   * can be sent before the rest (e.g., the page content) is rendered.
+   *
+   * @param variables The variables.
+   * @param parent The parent context (e.g., when rendering an include), or {@code null}.
+   * @param out The target.
+   * @param errors If not {@code null}, receives the errors reported during rendering.
+   * @throws IOException on error.
+   */
+  public void renderTo(Map<String, Object> variables, TemplateContext parent, Appendable out,
+      List<Exception> errors) throws IOException {
+    TemplateContext context = newContext(variables, parent);
+    RenderTransformer transformer = parser.getRenderTransformer();
+    try {
+      for (LNode node : root.nodes) {
+        Object value = node.render(context);
+        if (value == null) {
+          continue;
+        } else if (value == LValue.BREAK || value == LValue.CONTINUE) {
+          break;
+        } else if (value instanceof List) {
+          for (Object obj : (List<?>) value) {
+            append(out, transformer.transformObject(context, postprocess(obj, context)));
+          }
+        } else if (value.getClass().isArray()) {
+          for (Object obj : (Object[]) value) {
+            append(out, transformer.transformObject(context, postprocess(obj, context)));
+          }
+        } else {
+          append(out, transformer.transformObject(context, postprocess(value, context)));
+        }
+      }
+    } finally {
+      if (errors != null) {
+        errors.addAll(context.errors());
+      }
+    }
+  }
+
+  /**
+   * Appends the given rendered object to the given {@link Appendable}.
+   *
+   * @param out The target.
+   * @param obj The object.
+   * @throws IOException on error.
+   */
+  static void append(Appendable out, Object obj) throws IOException {
+    if (obj == null) {
+      return;
+    } else if (obj instanceof StringHolder) {
+      ((StringHolder) obj).appendTo(out);
+    } else if (obj instanceof CharSequence) {
+      out.append((CharSequence) obj);
+    } else {
+      out.append(String.valueOf(obj));
+    }
+  }
+}
@@ -17,27 +17,24 @@
  */
 package com.kohlschutter.jockel.core.liqp;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Locale;
 
-import com.kohlschutter.dumbo.util.SuppliedThreadLocal;
-
 import liqp.TemplateContext;
 import liqp.filters.Filter;
 
 public class DateToXmlschemaFilter extends Filter {
   private static final liqp.filters.Date LIQP_DATE_FILTER = new liqp.filters.Date() {
   };
-  private static final SimpleDateFormat[] PARSERS = {
-      new SimpleDateFormat("yyyy-MM-dd hh:mm:ss zzz", Locale.ENGLISH), //
-      new SimpleDateFormat("yyyy-MM-dd hh:mm zzz", Locale.ENGLISH), //
-      new SimpleDateFormat("yyyy-MM-dd hh:mm:ss XXX", Locale.ENGLISH), //
-      new SimpleDateFormat("yyyy-MM-dd hh:mm XXX", Locale.ENGLISH), //
-  };
-  private static final ThreadLocal<SimpleDateFormat> TL_ISO_8601 = SuppliedThreadLocal.of(
-      () -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH));
+
+  // e.g., "2024-01-02 10:11:12 CET", "2024-01-02 10:11 +01:00", "2024-01-02 10:11:12 +0100"
+  private static final DateTimeFormatter PARSER = DateTimeFormatter.ofPattern(
+      "yyyy-MM-dd HH:mm[:ss] [XXX][XX][z]", Locale.ENGLISH);
+  private static final DateTimeFormatter ISO_8601 = DateTimeFormatter.ofPattern(
+      "yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH);
 
   public DateToXmlschemaFilter() {
     super("date_to_xmlschema");
@@ -50,19 +47,13 @@ public class DateToXmlschemaFilter extends Filter {
     }
     String date = LIQP_DATE_FILTER.apply(value, context, new Object[0]).toString();
 
-    Date d = null;
-    for (SimpleDateFormat parser : PARSERS) {
-      try {
-        d = parser.parse(date);
-        break;
-      } catch (ParseException e) {
-        continue;
-      }
-    }
-    if (d == null) {
-      throw new IllegalStateException("Cannot parse date: " + date);
+    ZonedDateTime d;
+    try {
+      d = PARSER.parse(date, ZonedDateTime::from);
+    } catch (DateTimeParseException e) {
+      throw new IllegalStateException("Cannot parse date: " + date, e);
     }
 
-    return TL_ISO_8601.get().format(d);
+    return ISO_8601.format(d.withZoneSameInstant(ZoneId.systemDefault()));
   }
 }
@@ -0,0 +1,358 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.kohlschutter.dumbo.api.DumboComponent;
+import com.kohlschutter.jockel.core.ComponentUsageTracker;
+import com.kohlschutter.jockel.core.DependencyTracker;
+import com.kohlschutter.jockel.core.LiquidVariables;
+import com.kohlschutter.jockel.core.site.SiteObject;
+
+import liqp.TemplateContext;
+import liqp.nodes.LNode;
+
+/**
+ * A bounded cache of rendered Liquid fragments, used by {@link CacheBlock} and
+ * {@link IncludeCachedTag}.
+ *
+ * Entries are keyed by the evaluated key expressions plus the site generation, so they are
+ * implicitly invalidated whenever a site resource changes. The cache is bounded by the total
+ * length of the cached fragments, evicting the least-recently used ones first.
+ *
+ * The dependencies recorded while rendering a fragment (see {@link DependencyTracker}) are kept
+ * with the fragment, and recorded again for every page that uses the cached fragment. The same
+ * applies to dumbo components marked as used (see {@link ComponentUsageTracker}).
+ *
+ * Maps and collections used as key components are compared by identity, and only weakly
+ * referenced; fragments keyed by such an object are removed once it is garbage-collected.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class FragmentCache {
+  /**
+   * The default maximum total length of cached fragments, in characters.
+   */
+  public static final int DEFAULT_MAX_WEIGHT = 16 * 1024 * 1024;
+
+  private static final int ENTRY_OVERHEAD = 64;
+  private static final Pattern TOKEN = Pattern.compile(
+      "([\\w-]+)\\s*=\\s*(\"[^\"]*\"|'[^']*'|\\S+)|\"[^\"]*\"|'[^']*'|\\S+");
+  private static final Pattern INTEGER = Pattern.compile("-?[0-9]+");
+  private static final Set<String> GLUE_TOKENS = Set.of(".", "[", "]");
+  private static final Pattern DECIMAL = Pattern.compile("-?[0-9]+\\.[0-9]+");
+
+  // not synchronized: rendering may do I/O, which would pin virtual threads on Java 21
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<List<Object>, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReferenceQueue<Object> collectedKeys = new ReferenceQueue<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private long weight = 0;
+  private volatile long maxWeight = DEFAULT_MAX_WEIGHT;
+
+  private static final class Fragment {
+    private final String content;
+    private final Set<String> dependencies;
+    private final Set<Class<? extends DumboComponent>> usedComponents;
+
+    Fragment(String content, Set<String> dependencies,
+        Set<Class<? extends DumboComponent>> usedComponents) {
+      this.content = content;
+      this.dependencies = dependencies;
+      this.usedComponents = usedComponents;
+    }
+
+    long weight() {
+      return content.length() + ENTRY_OVERHEAD;
+    }
+  }
+
+  /**
+   * A key component that is compared by identity (e.g., a map or a collection, which may be large
+   * and mutable), and that does not keep it from being garbage-collected (e.g., a page).
+   */
+  private static final class IdentityKey extends WeakReference<Object> {
+    private final int hash;
+    private List<Object> fullKey;
+
+    IdentityKey(Object obj, ReferenceQueue<Object> queue) {
+      super(obj, queue);
+      this.hash = System.identityHashCode(obj);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) {
+        return true;
+      } else if (!(other instanceof IdentityKey)) {
+        return false;
+      }
+      Object obj = get();
+      return obj != null && obj == ((IdentityKey) other).get(); // NOPMD.CompareObjectsWithEquals
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Returns the cached fragment for the given key, or renders and caches it.
+   *
+   * @param context The template context (used to determine the site generation and settings).
+   * @param key The key components (e.g., the evaluated key expressions).
+   * @param renderer Renders the fragment.
+   * @return The rendered fragment.
+   */
+  String get(TemplateContext context, List<Object> key, Supplier<String> renderer) {
+    Object site = context.get(LiquidVariables.SITE);
+    List<Object> fullKey = new ArrayList<>(key.size() + 1);
+    for (Object k : key) {
+      fullKey.add(toKeyComponent(k, collectedKeys));
+    }
+    fullKey.add(site instanceof SiteObject ? ((SiteObject) site).getGeneration() : -1L);
+
+    Fragment fragment;
+    lock.lock();
+    try {
+      expungeCollectedKeys();
+      fragment = fragments.get(fullKey);
+    } finally {
+      lock.unlock();
+    }
+    if (fragment != null) {
+      hits.increment();
+      fragment.dependencies.forEach(DependencyTracker::record);
+      ComponentUsageTracker.markUsed(fragment.usedComponents);
+      return fragment.content;
+    }
+    misses.increment();
+
+    Set<String> previous = DependencyTracker.beginRecording();
+    Set<Class<? extends DumboComponent>> previousComponents = ComponentUsageTracker
+        .beginRecording();
+    String content;
+    Set<String> deps;
+    Set<Class<? extends DumboComponent>> components;
+    try {
+      content = renderer.get();
+    } finally {
+      components = ComponentUsageTracker.endRecording(previousComponents);
+      deps = DependencyTracker.endRecording(previous);
+    }
+
+    if (site instanceof SiteObject) {
+      maxWeight = ((SiteObject) site).getJockelSetting(LiquidVariables.JOCKEL_FRAGMENT_CACHE_SIZE,
+          DEFAULT_MAX_WEIGHT);
+    }
+    put(fullKey, new Fragment(content, Collections.unmodifiableSet(deps), Collections
+        .unmodifiableSet(components)));
+    return content;
+  }
+
+  private void put(List<Object> key, Fragment fragment) {
+    long max = maxWeight;
+    if (fragment.weight() > max) {
+      return;
+    }
+    lock.lock();
+    try {
+      for (Object k : key) {
+        if (k instanceof IdentityKey) {
+          ((IdentityKey) k).fullKey = key;
+        }
+      }
+      Fragment previous = fragments.put(key, fragment);
+      if (previous != null) {
+        weight -= previous.weight();
+      }
+      weight += fragment.weight();
+      for (Iterator<Fragment> it = fragments.values().iterator(); weight > max && it.hasNext();) {
+        Fragment eldest = it.next();
+        weight -= eldest.weight();
+        it.remove();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the fragments whose key refers to an object that has been garbage-collected, and which
+   * can therefore no longer be looked up. Must be called with the lock held.
+   */
+  private void expungeCollectedKeys() {
+    Reference<?> ref;
+    while ((ref = collectedKeys.poll()) != null) {
+      List<Object> fullKey = ((IdentityKey) ref).fullKey;
+      if (fullKey != null) {
+        Fragment removed = fragments.remove(fullKey);
+        if (removed != null) {
+          weight -= removed.weight();
+        }
+      }
+    }
+  }
+
+  private static Object toKeyComponent(Object obj, ReferenceQueue<Object> queue) {
+    if (obj instanceof CharSequence) {
+      return obj.toString();
+    } else if (obj instanceof Map || obj instanceof Collection) {
+      return new IdentityKey(obj, queue);
+    } else {
+      return obj;
+    }
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the parameters of a custom tag as markup text.
+   *
+   * Depending on the liqp version, the parameters are passed either as a single node holding the
+   * raw text, or as one node per token (without whitespace), in which case the tokens are joined
+   * again, separated by spaces (except around "." and brackets).
+   *
+   * @param context The template context.
+   * @param nodes The nodes passed to the tag.
+   * @return The markup text.
+   */
+  static String markup(TemplateContext context, LNode... nodes) {
+    if (nodes.length == 0) {
+      return "";
+    } else if (nodes.length == 1) {
+      return String.valueOf(nodes[0].render(context));
+    }
+    StringBuilder sb = new StringBuilder();
+    String previous = null;
+    for (LNode node : nodes) {
+      String token = String.valueOf(node.render(context));
+      if (previous != null && !GLUE_TOKENS.contains(previous) && !GLUE_TOKENS.contains(token)) {
+        sb.append(' ');
+      }
+      sb.append(token);
+      previous = token;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Splits tag parameters into tokens: quoted strings, {@code name=value} pairs (returned as
+   * two-element arrays), and everything else separated by whitespace.
+   *
+   * @param markup The tag parameters.
+   * @return The tokens; either {@link String}s or {@code String[2]} name-value pairs.
+   */
+  static List<Object> tokenize(String markup) {
+    List<Object> tokens = new ArrayList<>();
+    if (markup == null) {
+      return tokens;
+    }
+    Matcher m = TOKEN.matcher(markup);
+    while (m.find()) {
+      if (m.group(1) != null) {
+        tokens.add(new String[] {m.group(1), m.group(2)});
+      } else {
+        tokens.add(m.group());
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Evaluates a simple Liquid expression: a quoted string, a number, a boolean, {@code nil}, or a
+   * variable lookup (e.g., {@code page.tags}, {@code site.posts.size}, {@code list.0}).
+   *
+   * @param expr The expression.
+   * @param context The template context.
+   * @return The value.
+   */
+  @SuppressWarnings("PMD.CognitiveComplexity")
+  static Object evaluate(String expr, TemplateContext context) {
+    int len = expr.length();
+    if (len >= 2 && (expr.charAt(0) == '"' || expr.charAt(0) == '\'') && expr.charAt(
+        len - 1) == expr.charAt(0)) {
+      return expr.substring(1, len - 1);
+    }
+    switch (expr) {
+      case "true":
+        return Boolean.TRUE;
+      case "false":
+        return Boolean.FALSE;
+      case "nil":
+      case "null":
+        return null;
+      default:
+        break;
+    }
+    if (INTEGER.matcher(expr).matches()) {
+      return Long.valueOf(expr);
+    } else if (DECIMAL.matcher(expr).matches()) {
+      return Double.valueOf(expr);
+    }
+
+    String[] path = expr.split("\\.");
+    Object obj = context.get(path[0]);
+    for (int i = 1; i < path.length && obj != null; i++) {
+      String p = path[i];
+      if (obj instanceof Map) {
+        Object v = ((Map<?, ?>) obj).get(p);
+        if (v == null && "size".equals(p)) {
+          obj = ((Map<?, ?>) obj).size();
+        } else {
+          obj = v;
+        }
+      } else if (obj instanceof List && INTEGER.matcher(p).matches()) {
+        List<?> list = (List<?>) obj;
+        int index = Integer.parseInt(p);
+        obj = index >= 0 && index < list.size() ? list.get(index) : null;
+      } else if (obj instanceof Collection && "size".equals(p)) {
+        obj = ((Collection<?>) obj).size();
+      } else if (obj instanceof CharSequence && "size".equals(p)) {
+        obj = ((CharSequence) obj).length();
+      } else {
+        obj = null;
+      }
+    }
+    return obj;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import liqp.TemplateContext;
+import liqp.nodes.LNode;
+
+/**
+ * The "include_cached" tag (as in the jekyll-include-cache plugin):
+ * {@code {% include_cached file.html param=value ... %}}.
+ *
+ * Works like "include", but the output is rendered only once per distinct combination of include
+ * file, parameter values and site generation; see {@link FragmentCache}. The include must
+ * therefore only depend on its parameters (and site-wide variables), not on the current page.
+ *
+ * @author Christian Kohlschütter
+ */
+public class IncludeCachedTag extends JockelIncludeTag {
+  private final FragmentCache cache;
+
+  public IncludeCachedTag(FragmentCache cache) {
+    super("include_cached");
+    this.cache = cache;
+  }
+
+  @Override
+  public Object render(TemplateContext context, LNode... nodes) {
+    List<Object> tokens = FragmentCache.tokenize(FragmentCache.markup(context, nodes));
+    if (tokens.isEmpty() || !(tokens.get(0) instanceof String)) {
+      throw new IllegalStateException("include_cached: missing include file");
+    }
+    String includeResource = (String) tokens.get(0);
+    if (includeResource.charAt(0) == '"' || includeResource.charAt(0) == '\'') {
+      includeResource = String.valueOf(FragmentCache.evaluate(includeResource, context));
+    }
+
+    Map<String, Object> params = new TreeMap<>();
+    for (int i = 1, n = tokens.size(); i < n; i++) {
+      Object token = tokens.get(i);
+      if (!(token instanceof String[])) {
+        throw new IllegalStateException("include_cached: unexpected parameter: " + token);
+      }
+      String[] nv = (String[]) token;
+      params.put(nv[0], FragmentCache.evaluate(nv[1], context));
+    }
+
+    List<Object> key = new ArrayList<>(2 + params.size() * 2);
+    key.add(name);
+    key.add(includeResource);
+    for (Map.Entry<String, Object> en : params.entrySet()) {
+      key.add(en.getKey());
+      key.add(en.getValue());
+    }
+
+    String resource = includeResource;
+    return cache.get(context, key, () -> asString(renderInclude(context, resource, params
+        .isEmpty() ? null : params), context));
+  }
+}
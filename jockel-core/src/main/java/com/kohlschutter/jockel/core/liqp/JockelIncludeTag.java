@@ -18,85 +18,261 @@
 package com.kohlschutter.jockel.core.liqp;
 
 import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.kohlschutter.dumbo.ServerApp;
+import com.kohlschutter.jockel.core.DependencyTracker;
 import com.kohlschutter.jockel.core.LiquidHelper;
+import com.kohlschutter.jockel.core.RenderProfiler;
+import com.kohlschutter.util.PathUtil;
 
-import liqp.Template;
 import liqp.TemplateContext;
+import liqp.TemplateParser;
 import liqp.nodes.LNode;
 import liqp.parser.Flavor;
 import liqp.tags.Tag;
 
+/**
+ * Jekyll-compatible "include" tag.
+ *
+ * Parsed includes are cached (and validated against the last-modified time of their source), as
+ * are failed lookups (for a few seconds, or until {@link #invalidate()} is called), so only
+ * rendering happens for every inclusion.
+ *
+ * @author Christian Kohlschütter
+ */
 public class JockelIncludeTag extends Tag {
   public static final String DEFAULT_EXTENSION = ".liquid";
 
+  private static final long MISSING_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private static final int MAX_MISSING = 1024;
+
+  private final Map<String, CachedInclude> includes = new ConcurrentHashMap<>();
+  private final Map<String, Long> missing = new ConcurrentHashMap<>();
+
+  private static final class CachedInclude {
+    private final Path path;
+    private final long lastModified;
+    private final TemplatePool templates;
+
+    CachedInclude(Path path, long lastModified, TemplatePool templates) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.templates = templates;
+    }
+
+    boolean isUpToDate(TemplateParser parser) {
+      if (templates.getParser() != parser) {
+        return false;
+      } else if (path == null) {
+        // e.g., a resource in a jar file
+        return true;
+      }
+      try {
+        return Files.getLastModifiedTime(path).toMillis() == lastModified;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
   public JockelIncludeTag() {
-    super("include");
+    this("include");
+  }
+
+  protected JockelIncludeTag(String name) {
+    super(name);
   }
 
   @Override
   public Object render(TemplateContext context, LNode... nodes) {
+    String includeResource = null;
+    Map<String, Object> includeMap = null;
+    try {
+      includeResource = super.asString(nodes[0].render(context), context);
+
+      if (nodes.length > 1) {
+        if (context.getParser().flavor != Flavor.JEKYLL) {
+          // check if there's an optional "with expression"
+          Object value = nodes[1].render(context);
+          context.put(withDefaultExtension(includeResource), value);
+        } else {
+          includeMap = new HashMap<>();
+          for (int i = 1, n = nodes.length; i < n; i++) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> var = (Map<String, Object>) nodes[i].render(context);
+
+            includeMap.putAll(var);
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      return handleException(context, includeResource, e);
+    }
+
+    return renderInclude(context, includeResource, includeMap);
+  }
+
+  private static String withDefaultExtension(String includeResource) {
+    if (includeResource.indexOf('.') == 0) {
+      return includeResource + DEFAULT_EXTENSION;
+    }
+    return includeResource;
+  }
+
+  private static Object handleException(TemplateContext context, String includeResource,
+      Exception e) {
+    e.printStackTrace();
+    if (context.getParser().showExceptionsFromInclude) {
+      throw new IllegalStateException("problem with evaluating include: " + includeResource, e);
+    } else {
+      return "";
+    }
+  }
+
+  /**
+   * Renders the given include.
+   *
+   * @param context The template context.
+   * @param includeResource The include file, relative to "_includes/".
+   * @param includeMap The "include" variables (parameters), or {@code null}.
+   * @return The rendered include.
+   */
+  protected Object renderInclude(TemplateContext context, String includeResource,
+      Map<String, Object> includeMap) {
+    Map<String, Object> variables = new HashMap<String, Object>();
+    if (includeMap != null) {
+      variables.put("include", includeMap);
+    }
+
+    // CustomSiteVariables.copyPathAndFileName(context.getVariables(), variables);
+
+    return renderInclude(context, includeResource, variables, false);
+  }
+
+  /**
+   * Renders the given include in an isolated scope, i.e., only the given variables are visible to
+   * the include, not those of the including template.
+   *
+   * @param context The template context of the including template.
+   * @param includeResource The include file, relative to "_includes/".
+   * @param variables The variables.
+   * @return The rendered include.
+   */
+  protected Object renderIsolated(TemplateContext context, String includeResource,
+      Map<String, Object> variables) {
+    return renderInclude(context, includeResource, variables, true);
+  }
+
+  private Object renderInclude(TemplateContext context, String includeResource,
+      Map<String, Object> variables, boolean isolated) {
     @SuppressWarnings("resource")
     ServerApp app = (ServerApp) Objects.requireNonNull(context.getEnvironmentMap().get(
         LiquidHelper.ENVIRONMENT_KEY_DUMBO_APP));
 
-    String includeResource = null;
     try {
-      includeResource = super.asString(nodes[0].render(context), context);
       if (includeResource.isEmpty()) {
-        throw new FileNotFoundException("Can't include " + nodes[0] + " (empty string)");
+        throw new FileNotFoundException("Can't include " + includeResource + " (empty string)");
       }
+      includeResource = withDefaultExtension(includeResource);
 
-      if (includeResource.indexOf('.') == 0) {
-        includeResource += DEFAULT_EXTENSION;
-      }
+      String includePath = "_includes/" + includeResource;
+      DependencyTracker.record(includePath);
 
-      URL resource = app.getResource("markdown/_includes/" + includeResource);
-      if (resource == null) {
+      TemplatePool templates = getTemplates(app, context.getParser(), includePath);
+      if (templates == null) {
         throw new FileNotFoundException("Can't include " + includeResource);
       }
 
-      Map<String, Object> variables = new HashMap<String, Object>();
-
-      // CustomSiteVariables.copyPathAndFileName(context.getVariables(), variables);
-
-      try (Reader in = new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8)) {
-        Template template;
-        template = context.getParser().parse(in);
-        if (nodes.length > 1) {
-          if (context.getParser().flavor != Flavor.JEKYLL) {
-            // check if there's an optional "with expression"
-            Object value = nodes[1].render(context);
-            context.put(includeResource, value);
-          } else {
-            Map<String, Object> includeMap = new HashMap<>();
-            variables.put("include", includeMap);
-            for (int i = 1, n = nodes.length; i < n; i++) {
-              @SuppressWarnings("unchecked")
-              Map<String, Object> var = (Map<String, Object>) nodes[i].render(context);
-
-              includeMap.putAll(var);
-            }
-          }
-        }
-
-        return template.renderToObjectUnguarded(variables, context, true);
+      RenderProfiler.Sample sample = RenderProfiler.start();
+      try {
+        return templates.render(variables, isolated ? null : context, null);
+      } finally {
+        RenderProfiler.stop(sample, "include", includePath);
       }
     } catch (Exception e) {
-      e.printStackTrace();
-      if (context.getParser().showExceptionsFromInclude) {
-        throw new IllegalStateException("problem with evaluating include: " + includeResource, e);
-      } else {
-        return "";
+      return handleException(context, includeResource, e);
+    }
+  }
+
+  /**
+   * Parses the given include ahead of time, so the first page that includes it does not have to.
+   *
+   * @param app The app.
+   * @param parser The parser that will be used to render the include.
+   * @param includeResource The include file, relative to "_includes/".
+   * @throws IOException on error.
+   */
+  public void preload(ServerApp app, TemplateParser parser, String includeResource)
+      throws IOException {
+    getTemplates(app, parser, "_includes/" + withDefaultExtension(includeResource));
+  }
+
+  /**
+   * Forgets all cached includes and failed lookups, so the next inclusion reads the include from
+   * its source again.
+   */
+  public void invalidate() {
+    missing.clear();
+    includes.clear();
+  }
+
+  /**
+   * Returns the parsed templates for the given include, from the cache if possible.
+   *
+   * @return The templates, or {@code null} if there is no such include.
+   */
+  private TemplatePool getTemplates(ServerApp app, TemplateParser parser, String includePath)
+      throws IOException {
+    CachedInclude cached = includes.get(includePath);
+    if (cached != null && cached.isUpToDate(parser)) {
+      return cached.templates;
+    }
+    if (cached == null) {
+      Long missingSince = missing.get(includePath);
+      if (missingSince != null && System.nanoTime() - missingSince < MISSING_TTL_NANOS) {
+        return null;
       }
     }
+
+    URL resource = app.getResource("markdown/" + includePath);
+    if (resource == null) {
+      includes.remove(includePath);
+      if (missing.size() >= MAX_MISSING) {
+        missing.clear();
+      }
+      missing.put(includePath, System.nanoTime());
+      return null;
+    }
+    missing.remove(includePath);
+
+    Path path = PathUtil.toPathIfPossible(resource);
+    long lastModified;
+    String source;
+    if (path != null) {
+      lastModified = Files.getLastModifiedTime(path).toMillis();
+      source = Files.readString(path, StandardCharsets.UTF_8);
+    } else {
+      URLConnection conn = resource.openConnection();
+      lastModified = conn.getLastModified();
+      try (InputStream in = conn.getInputStream()) {
+        source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+    }
+
+    cached = new CachedInclude(path, lastModified, new TemplatePool(parser, source));
+    includes.put(includePath, cached);
+    return cached.templates;
   }
 }
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kohlschutter.jockel.core.RenderProfiler;
 
 import liqp.TemplateContext;
 import liqp.filters.Filter;
@@ -46,10 +47,13 @@ public class JsonifyFilter extends Filter {
     if (value instanceof CharSequence) {
       value = value.toString();
     }
+    RenderProfiler.Sample sample = RenderProfiler.start();
     try {
       return ow.writeValueAsString(value);
     } catch (JsonProcessingException e) {
       throw new IllegalStateException(e);
+    } finally {
+      RenderProfiler.stop(sample, "filter", "jsonify");
     }
   }
 }
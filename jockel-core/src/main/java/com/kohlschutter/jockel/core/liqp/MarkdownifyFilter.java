@@ -20,6 +20,7 @@ package com.kohlschutter.jockel.core.liqp;
 import java.io.IOException;
 
 import com.kohlschutter.jockel.core.MarkdownHelper;
+import com.kohlschutter.jockel.core.RenderProfiler;
 import com.kohlschutter.stringhold.StringHolder;
 import com.kohlschutter.stringhold.StringHolderSequence;
 
@@ -52,12 +53,15 @@ public class MarkdownifyFilter extends Filter {
       return "";
     }
 
+    RenderProfiler.Sample sample = RenderProfiler.start();
     try {
       StringHolderSequence sh = StringHolder.newSequence();
       mh.render(mh.parseMarkdown(value), sh);
       return sh;
     } catch (IOException e) {
       throw new IllegalStateException("Cannot markdownify content", e);
+    } finally {
+      RenderProfiler.stop(sample, "filter", "markdownify");
     }
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.kohlschutter.jockel.core.LiquidVariables;
+
+import liqp.TemplateContext;
+import liqp.nodes.LNode;
+
+/**
+ * The Liquid 5 "render" tag: {@code {% render 'card', post: post, featured: true %}}, or
+ * {@code {% render 'card' with post as item %}}.
+ *
+ * Unlike "include", the rendered partial does not see the variables of the including template;
+ * only its arguments and the site-wide variables ({@code site}, {@code jekyll}) are visible. Its
+ * output therefore only depends on these, and is rendered only once per distinct combination of
+ * partial, argument values and site generation; see {@link FragmentCache}. For example, a post
+ * card rendered in a loop on every page of the site is computed only once per post.
+ *
+ * Partials are looked up in "_includes/", just like includes. The "for" variant of the tag is not
+ * supported.
+ *
+ * @author Christian Kohlschütter
+ */
+public class RenderTag extends JockelIncludeTag {
+  private static final Pattern NAME = Pattern.compile("\\s*(\"[^\"]*\"|'[^']*')\\s*");
+  private static final Pattern WITH = Pattern.compile(
+      "with\\s+(\"[^\"]*\"|'[^']*'|[^\\s,]+)(?:\\s+as\\s+(\\w+))?\\s*");
+  private static final Pattern ARGUMENT = Pattern.compile(
+      ",?\\s*(\\w+)\\s*:\\s*(\"[^\"]*\"|'[^']*'|[^\\s,]+)\\s*");
+
+  private final FragmentCache cache;
+
+  public RenderTag(FragmentCache cache) {
+    super("render");
+    this.cache = cache;
+  }
+
+  @Override
+  public Object render(TemplateContext context, LNode... nodes) {
+    String markup = FragmentCache.markup(context, nodes).trim();
+
+    Matcher m = NAME.matcher(markup);
+    if (!m.lookingAt()) {
+      throw new IllegalStateException("render: expected a quoted partial name: " + markup);
+    }
+    String partial = String.valueOf(FragmentCache.evaluate(m.group(1), context));
+    int pos = m.end();
+
+    Map<String, Object> arguments = new TreeMap<>();
+    m = WITH.matcher(markup).region(pos, markup.length());
+    if (m.lookingAt()) {
+      String alias = m.group(2) == null ? baseName(partial) : m.group(2);
+      arguments.put(alias, FragmentCache.evaluate(m.group(1), context));
+      pos = m.end();
+    }
+
+    m = ARGUMENT.matcher(markup).region(pos, markup.length());
+    while (m.lookingAt()) {
+      arguments.put(m.group(1), FragmentCache.evaluate(m.group(2), context));
+      pos = m.end();
+      m.region(pos, markup.length());
+    }
+    if (pos != markup.length()) {
+      throw new IllegalStateException("render: unexpected parameters: " + markup.substring(pos));
+    }
+
+    List<Object> key = new ArrayList<>(2 + arguments.size() * 2);
+    key.add(name);
+    key.add(partial);
+    for (Map.Entry<String, Object> en : arguments.entrySet()) {
+      key.add(en.getKey());
+      key.add(en.getValue());
+    }
+
+    Map<String, Object> variables = new HashMap<>(arguments);
+    variables.putIfAbsent(LiquidVariables.SITE, context.get(LiquidVariables.SITE));
+    variables.putIfAbsent(LiquidVariables.JEKYLL, context.get(LiquidVariables.JEKYLL));
+
+    return cache.get(context, key, () -> asString(renderIsolated(context, partial, variables),
+        context));
+  }
+
+  /**
+   * Returns the name of the partial without directories and extension ("cards/post.html" -&gt;
+   * "post"), which is the default variable name for "with".
+   */
+  private static String baseName(String partial) {
+    String base = partial.substring(partial.lastIndexOf('/') + 1);
+    int dot = base.indexOf('.');
+    return dot <= 0 ? base : base.substring(0, dot);
+  }
+}
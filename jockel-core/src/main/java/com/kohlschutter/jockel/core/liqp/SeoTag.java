@@ -19,18 +19,25 @@ package com.kohlschutter.jockel.core.liqp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
+import com.kohlschutter.jockel.core.RenderProfiler;
 import com.kohlschutter.jockel.core.YAMLSupport;
+import com.kohlschutter.jockel.core.site.SiteObject;
 import com.kohlschutter.jockel.core.util.ReflectionSupplierMap;
 
-import liqp.Template;
 import liqp.TemplateContext;
+import liqp.TemplateParser;
 import liqp.filters.Filter;
 import liqp.filters.Filters;
 import liqp.nodes.AtomNode;
@@ -58,22 +65,165 @@ public class SeoTag extends Tag {
   private static final Set<String> VALID_ENTITY_TYPES = Set.of("BlogPosting", "CreativeWork");
   private static final Set<String> VALID_AUTHOR_TYPES = Set.of("Organization", "Person");
 
+  /**
+   * The memoized page-level SEO values, by page identity. They are not stored in the page variables
+   * themselves, where they would be visible to templates (e.g., via jsonify or iteration).
+   */
+  private static final Map<PageKey, PageMemo> PAGE_MEMOS = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Object> PAGE_MEMOS_QUEUE = new ReferenceQueue<>();
+
+  /**
+   * SEO values that only depend on the page and the site, and can therefore be memoized per page.
+   */
+  private static final Set<String> PAGE_MEMO_KEYS = Set.of("page_title", "title", "description",
+      "canonical_url", "date_modified", "date_published", "type", "page_lang", "page_locale");
+
+  private static final Object NULL_VALUE = new Object();
+
+  private volatile TemplatePool templates;
+  private volatile SiteValues siteValues;
+
   public SeoTag() {
     super("seo");
   }
 
+  /**
+   * Site-level SEO values, computed once per site generation.
+   */
+  private static final class SiteValues {
+    private final Object site;
+    private final long generation;
+    private final String siteTitle;
+    private final String siteTagline;
+    private final String siteDescription;
+
+    SiteValues(TemplateContext context, Map<String, Object> site, long generation) {
+      this.site = site;
+      this.generation = generation;
+
+      String title = YAMLSupport.getVariableAsString(site, "title");
+      if (title == null) {
+        title = YAMLSupport.getVariableAsString(site, "name");
+      }
+      this.siteTitle = formatString(context, title);
+      this.siteTagline = formatString(context, YAMLSupport.getVariableAsString(site, "tagline"));
+      this.siteDescription = formatString(context, YAMLSupport.getVariableAsString(site,
+          "description"));
+    }
+
+    boolean isValidFor(Object otherSite, long otherGeneration) {
+      return site == otherSite && generation == otherGeneration;
+    }
+  }
+
+  /**
+   * Page-level SEO values, memoized per page for the current site generation.
+   */
+  private static final class PageMemo {
+    private final long generation;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    PageMemo(long generation) {
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Weakly references a page by identity, so memoized values don't keep pages alive.
+   */
+  private static final class PageKey extends WeakReference<Object> {
+    private final int hash;
+
+    PageKey(Object page, ReferenceQueue<Object> queue) {
+      super(page, queue);
+      this.hash = System.identityHashCode(page);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) { // NOPMD.CompareObjectsWithEquals
+        return true;
+      } else if (!(obj instanceof PageKey)) {
+        return false;
+      }
+      Object page = get();
+      return page != null && page == ((PageKey) obj).get(); // NOPMD.CompareObjectsWithEquals
+    }
+  }
+
+  private static long getGeneration(Object site) {
+    return site instanceof SiteObject ? ((SiteObject) site).getGeneration() : -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private SiteValues getSiteValues(TemplateContext context) {
+    Object site = context.get("site");
+    long generation = getGeneration(site);
+    SiteValues sv = siteValues;
+    if (sv == null || generation == -1 || !sv.isValidFor(site, generation)) {
+      sv = new SiteValues(context, (Map<String, Object>) site, generation);
+      if (generation != -1) {
+        siteValues = sv;
+      }
+    }
+    return sv;
+  }
+
+  private static PageMemo getPageMemo(TemplateContext context) {
+    Object page = context.get("page");
+    long generation = getGeneration(context.get("site"));
+    if (!(page instanceof Map) || generation == -1) {
+      return null;
+    }
+
+    Reference<?> ref;
+    while ((ref = PAGE_MEMOS_QUEUE.poll()) != null) {
+      PAGE_MEMOS.remove(ref); // NOPMD.SuspiciousMethodCalls
+    }
+
+    PageMemo memo = PAGE_MEMOS.get(new PageKey(page, null));
+    if (memo != null && memo.generation == generation) {
+      return memo;
+    }
+    memo = new PageMemo(generation);
+    PAGE_MEMOS.put(new PageKey(page, PAGE_MEMOS_QUEUE), memo);
+    return memo;
+  }
+
+  private TemplatePool getTemplates(TemplateParser parser) {
+    TemplatePool pool = templates;
+    if (pool == null || pool.getParser() != parser) {
+      String source;
+      try (InputStream in = SeoTag.class.getResourceAsStream("seo-template.html")) {
+        source = new String(Objects.requireNonNull(in, "seo-template.html").readAllBytes(),
+            StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      pool = new TemplatePool(parser, source);
+      templates = pool;
+    }
+    return pool;
+  }
+
   @Override
   // FIXME incomplete implementation
   public Object render(TemplateContext context, LNode... nodes) {
+    RenderProfiler.Sample sample = RenderProfiler.start();
     Map<String, Object> variables = new HashMap<String, Object>();
 
-    SeoTagMap seoTagMap = new SeoTagMap(context);
+    SeoTagMap seoTagMap = new SeoTagMap(context, getSiteValues(context), getPageMemo(context));
 
     for (LNode node : nodes) {
       if (node instanceof AtomNode) {
         String v = String.valueOf(node.render(context));
         if ("title=false".equals(v)) {
-          seoTagMap.put("title", null);
+          seoTagMap.disableTitle();
         } else {
           throw new IllegalStateException("Unsupported seo node value: " + node);
         }
@@ -90,14 +240,11 @@ public class SeoTag extends Tag {
 
     variables.put("seo_tag", seoTagMap);
 
-    Template template;
-    try (InputStream in = SeoTag.class.getResourceAsStream("seo-template.html")) {
-      template = context.getParser().parse(in);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
+    try {
+      return getTemplates(context.getParser()).render(variables, context, null);
+    } finally {
+      RenderProfiler.stop(sample, "tag", "seo");
     }
-
-    return template.renderToObjectUnguarded(variables, context, true);
   }
 
   protected static class SeoTagMap extends ReflectionSupplierMap<Object> {
@@ -111,11 +258,28 @@ public class SeoTag extends Tag {
 
     private final String pageNumber;
 
+    private final SiteValues siteValues;
+
+    private final PageMemo pageMemo;
+
+    private boolean titleDisabled = false;
+
+    /**
+     * Constructs a new {@link SeoTagMap} for the given context, without memoization.
+     *
+     * @param context The template context.
+     */
+    public SeoTagMap(TemplateContext context) {
+      this(context, new SiteValues(context, getSite(context), -1), null);
+    }
+
     @SuppressWarnings("unchecked")
     @SuppressFBWarnings("EI_EXPOSE_REP2")
-    public SeoTagMap(TemplateContext context) {
+    private SeoTagMap(TemplateContext context, SiteValues siteValues, PageMemo pageMemo) {
       super(Object.class);
       this.context = context;
+      this.siteValues = siteValues;
+      this.pageMemo = pageMemo;
 
       site = (Map<String, Object>) context.get("site");
       page = (Map<String, Object>) context.get("page");
@@ -129,6 +293,31 @@ public class SeoTag extends Tag {
       }
     }
 
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getSite(TemplateContext context) {
+      return (Map<String, Object>) context.get("site");
+    }
+
+    private void disableTitle() {
+      titleDisabled = true;
+      put("title", null);
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (pageMemo == null || paginator != null || !PAGE_MEMO_KEYS.contains(key) || (titleDisabled
+          && "title".equals(key))) {
+        return super.get(key);
+      }
+      Object v = pageMemo.values.get(key);
+      if (v == null) {
+        v = super.get(key);
+        pageMemo.values.put((String) key, v == null ? NULL_VALUE : v);
+        return v;
+      }
+      return v == NULL_VALUE ? null : v; // NOPMD.CompareObjectsWithEquals
+    }
+
     private String getString(String key) {
       Object v = get(key);
       if (v == null) {
@@ -145,21 +334,17 @@ public class SeoTag extends Tag {
 
     @ValueSupplier(key = "site_title")
     public String siteTitle() {
-      String v = YAMLSupport.getVariableAsString(site, "title");
-      if (v == null) {
-        v = YAMLSupport.getVariableAsString(site, "name");
-      }
-      return formatString(v);
+      return siteValues.siteTitle;
     }
 
     @ValueSupplier(key = "site_tagline")
     public String siteTagline() {
-      return formatString(YAMLSupport.getVariableAsString(site, "tagline"));
+      return siteValues.siteTagline;
     }
 
     @ValueSupplier(key = "site_description")
     public String siteDescription() {
-      return formatString(YAMLSupport.getVariableAsString(site, "description"));
+      return siteValues.siteDescription;
     }
 
     @ValueSupplier(key = "page_title")
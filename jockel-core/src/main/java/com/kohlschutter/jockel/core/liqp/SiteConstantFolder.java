@@ -0,0 +1,302 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liqp.TemplateContext;
+import liqp.TemplateParser;
+import liqp.filters.Filter;
+
+/**
+ * Folds output tags that only depend on the site configuration into literal text, before a
+ * template is parsed.
+ *
+ * Layouts typically contain many expressions such as {@code {{ site.title }}}, {@code {{
+ * site.description | escape }}} or {@code {{ "/assets/main.css" | relative_url }}}, which evaluate
+ * to the same value for every page. Replacing them with their value once, when the layout is
+ * loaded, leaves longer runs of literal text (which {@link CompiledTemplate} merges into a single
+ * constant).
+ *
+ * Only a conservative subset is folded: output tags whose expression is a string literal or a
+ * {@code site.} path into the given configuration values, optionally followed by parameterless
+ * filters that only depend on their input value (or on {@code site.url} and {@code site.baseurl}).
+ * Anything else is left for liqp, as are tags whose value is not a simple value, contains Liquid
+ * markup, or might be affected by the whitespace control of a neighboring tag. Templates that
+ * assign to a variable named "site" are not folded at all.
+ *
+ * The result is only valid for the given configuration; callers need to fold again when the
+ * configuration changes.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class SiteConstantFolder {
+  private static final String SITE = "site";
+
+  private static final Pattern SITE_PATH = Pattern.compile(
+      "site(?:\\.[A-Za-z_][A-Za-z0-9_]*)+");
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  /**
+   * Tags that may (re-)define the "site" variable within the template.
+   */
+  private static final Pattern SHADOWS_SITE = Pattern.compile(
+      "\\{%-?\\s*(?:assign|capture|for|increment|decrement)\\s+site\\b");
+
+  /**
+   * Tags whose body is not interpreted as Liquid markup (or not rendered at all).
+   */
+  private static final Pattern VERBATIM_START = Pattern.compile(
+      "\\{%-?\\s*(raw|comment)\\s*-?%\\}");
+
+  /**
+   * Filters that depend on the site configuration, which is fixed when folding.
+   */
+  private static final Set<String> SITE_FILTERS = Set.of("relative_url", "absolute_url");
+
+  private static final Object[] NO_PARAMS = new Object[0];
+
+  private static final Object NULL = new Object();
+
+  private SiteConstantFolder() {
+    throw new IllegalStateException("No instances");
+  }
+
+  /**
+   * A tag in the template source, along with its folded value, if any.
+   */
+  private static final class Tag {
+    private final int start;
+    private final int end;
+    private final boolean trimLeft;
+    private final boolean trimRight;
+    private final String value;
+
+    Tag(int start, int end, boolean trimLeft, boolean trimRight, String value) {
+      this.start = start;
+      this.end = end;
+      this.trimLeft = trimLeft;
+      this.trimRight = trimRight;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Replaces output tags that only depend on the given site configuration with their value.
+   *
+   * @param parser The parser (which provides the filters).
+   * @param source The template source.
+   * @param siteConfig The site configuration values (those values of the "site" object that cannot
+   *          change without a configuration change).
+   * @return The folded source, or the original source if nothing could be folded.
+   */
+  public static String fold(TemplateParser parser, String source, Map<String, Object> siteConfig) {
+    if (!source.contains("{{") || SHADOWS_SITE.matcher(source).find()) {
+      return source;
+    }
+
+    TemplateContext filterContext = SubstitutionTemplate.newFilterContext(parser);
+    filterContext.put(SITE, siteConfig);
+
+    List<Tag> tags = new ArrayList<>();
+    boolean haveValues = false;
+    for (int pos = 0, open; (open = nextTag(source, pos)) != -1;) {
+      boolean output = source.charAt(open + 1) == '{';
+      int close = source.indexOf(output ? "}}" : "%}", open + 2);
+      if (close == -1) {
+        // liqp will complain
+        return source;
+      }
+      int end = close + 2;
+      boolean trimLeft = source.charAt(open + 2) == '-';
+      boolean trimRight = source.charAt(close - 1) == '-';
+
+      String value = null;
+      if (output) {
+        if (!trimLeft && !trimRight) {
+          value = evaluate(parser, filterContext, siteConfig, source.substring(open + 2, close));
+        }
+      } else {
+        Matcher m = VERBATIM_START.matcher(source).region(open, end);
+        if (m.matches()) {
+          Matcher mEnd = Pattern.compile("\\{%-?\\s*end" + m.group(1) + "\\s*-?%\\}").matcher(
+              source);
+          if (!mEnd.find(end)) {
+            return source;
+          }
+          end = mEnd.end();
+          trimRight = source.charAt(end - 3) == '-';
+        }
+      }
+
+      haveValues |= (value != null);
+      tags.add(new Tag(open, end, trimLeft, trimRight, value));
+      pos = end;
+    }
+    if (!haveValues) {
+      return source;
+    }
+
+    StringBuilder sb = new StringBuilder(source.length());
+    int copied = 0;
+    for (int i = 0, n = tags.size(); i < n; i++) {
+      Tag tag = tags.get(i);
+      if (tag.value == null) {
+        continue;
+      }
+      // whitespace control of a neighboring tag would also strip whitespace from the folded value
+      if (i > 0) {
+        Tag prev = tags.get(i - 1);
+        if (prev.trimRight && source.substring(prev.end, tag.start).isBlank()) {
+          continue;
+        }
+      }
+      if (i + 1 < n) {
+        Tag next = tags.get(i + 1);
+        if (next.trimLeft && source.substring(tag.end, next.start).isBlank()) {
+          continue;
+        }
+      }
+
+      sb.append(source, copied, tag.start);
+      sb.append(tag.value);
+      copied = tag.end;
+    }
+    if (copied == 0) {
+      return source;
+    }
+    sb.append(source, copied, source.length());
+    return sb.toString();
+  }
+
+  private static int nextTag(String source, int pos) {
+    for (int i = source.indexOf('{', pos); i != -1 && i < source.length() - 2; i = source.indexOf(
+        '{', i + 1)) {
+      char c = source.charAt(i + 1);
+      if (c == '{' || c == '%') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Evaluates the markup of an output tag, if it only depends on the site configuration.
+   *
+   * @return The value, or {@code null} if the tag cannot be folded.
+   */
+  private static String evaluate(TemplateParser parser, TemplateContext filterContext,
+      Map<String, Object> siteConfig, String markup) {
+    String expression;
+    String filterChain;
+    String trimmed = markup.strip();
+    if (trimmed.isEmpty()) {
+      return null;
+    }
+    char c = trimmed.charAt(0);
+    if (c == '"' || c == '\'') {
+      int endQuote = trimmed.indexOf(c, 1);
+      if (endQuote == -1) {
+        return null;
+      }
+      expression = trimmed.substring(0, endQuote + 1);
+      filterChain = trimmed.substring(endQuote + 1);
+    } else {
+      int bar = trimmed.indexOf('|');
+      expression = bar == -1 ? trimmed : trimmed.substring(0, bar).strip();
+      filterChain = bar == -1 ? "" : trimmed.substring(bar);
+    }
+    filterChain = filterChain.strip();
+    if (!filterChain.isEmpty() && filterChain.charAt(0) != '|') {
+      return null;
+    }
+
+    Object value;
+    if (expression.charAt(0) == '"' || expression.charAt(0) == '\'') {
+      value = expression.substring(1, expression.length() - 1);
+    } else if (SITE_PATH.matcher(expression).matches()) {
+      value = lookup(siteConfig, expression.split("\\."));
+      if (value == null) {
+        return null;
+      }
+    } else {
+      return null;
+    }
+
+    if (!filterChain.isEmpty()) {
+      String[] names = filterChain.substring(1).split("\\|", -1);
+      for (String name : names) {
+        name = name.strip();
+        if (!IDENTIFIER.matcher(name).matches() || !(SubstitutionTemplate.SIMPLE_FILTERS
+            .contains(name) || SITE_FILTERS.contains(name))) {
+          return null;
+        }
+        Filter filter = parser.filters.get(name);
+        if (filter == null) {
+          return null;
+        }
+        int numErrors = filterContext.errors().size();
+        try {
+          value = filter.apply(value == NULL ? null : value, filterContext, NO_PARAMS);
+        } catch (RuntimeException e) {
+          return null;
+        }
+        if (filterContext.errors().size() != numErrors) {
+          return null;
+        }
+      }
+    }
+
+    value = SubstitutionTemplate.toOutput(value == NULL ? null : value);
+    if (!(value instanceof String)) {
+      return null;
+    }
+    String s = (String) value;
+    if (s.contains("{{") || s.contains("{%") || s.contains("}}") || s.contains("%}")) {
+      // would be interpreted as Liquid markup
+      return null;
+    }
+    return s;
+  }
+
+  /**
+   * Looks up a "site." path in the configuration.
+   *
+   * @return The value, {@link #NULL} for a configured {@code null} value, or {@code null} if the
+   *         path is not a configuration value.
+   */
+  private static Object lookup(Map<String, Object> siteConfig, String[] path) {
+    Object value = siteConfig;
+    for (int i = 1; i < path.length; i++) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      Map<?, ?> map = (Map<?, ?>) value;
+      value = map.get(path[i]);
+      if (value == null) {
+        return map.containsKey(path[i]) ? NULL : null;
+      }
+    }
+    return value;
+  }
+}
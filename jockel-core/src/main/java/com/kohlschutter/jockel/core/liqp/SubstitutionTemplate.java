@@ -0,0 +1,279 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import com.kohlschutter.stringhold.StringHolder;
+import com.kohlschutter.stringhold.StringHolderSequence;
+
+import liqp.TemplateContext;
+import liqp.TemplateParser;
+import liqp.filters.Filter;
+
+/**
+ * A template that consists of nothing but literal text and plain output tags, such as
+ * {@code {{ site.title }}} or {@code {{ page.description | xml_escape }}}.
+ *
+ * Such templates are very common for small includes and for {@code .txt}, {@code .json} and
+ * {@code .xml} files with front matter. They are rendered from a precompiled list of segments
+ * (literal, variable path, literal, ...), without an ANTLR parse and without creating a liqp
+ * {@link TemplateContext}.
+ *
+ * Anything else (tags, whitespace control, literals or operators in output tags, filters with
+ * parameters, unknown filters) is rejected by {@link #compile(TemplateParser, String)}. If a
+ * variable turns out to be missing or of an unsupported type when rendering, {@link #render(Map,
+ * TemplateContext)} returns {@code null}, and the template must be rendered by liqp instead.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class SubstitutionTemplate {
+  private static final Pattern PATH = Pattern.compile(
+      "[A-Za-z_][A-Za-z0-9_]*(?:\\.[A-Za-z_][A-Za-z0-9_]*)*");
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  /**
+   * Names that liqp treats specially (as literals, or as properties of lists and maps).
+   */
+  private static final Set<String> RESERVED = Set.of("true", "false", "nil", "null", "empty",
+      "blank", "size", "first", "last");
+
+  /**
+   * Filters that take no parameters, and only depend on their input value.
+   */
+  static final Set<String> SIMPLE_FILTERS = Set.of("escape", "escape_once", "xml_escape",
+      "cgi_escape", "uri_escape", "url_encode", "upcase", "downcase", "capitalize", "strip",
+      "lstrip", "rstrip", "strip_newlines", "newline_to_br", "slugify", "jsonify");
+
+  private static final Object[] NO_PARAMS = new Object[0];
+
+  private static final Object MISSING = new Object();
+
+  private final Object[] segments;
+  private final TemplateContext filterContext;
+  private final int literalLength;
+
+  private static final class Output {
+    private final String[] path;
+    private final Filter[] filters;
+
+    Output(String[] path, Filter[] filters) {
+      this.path = path;
+      this.filters = filters;
+    }
+  }
+
+  private SubstitutionTemplate(Object[] segments, TemplateContext filterContext,
+      int literalLength) {
+    this.segments = segments;
+    this.filterContext = filterContext;
+    this.literalLength = literalLength;
+  }
+
+  /**
+   * Compiles the given template source, if it only consists of literal text and plain output tags.
+   *
+   * @param parser The parser (which provides the filters).
+   * @param source The template source.
+   * @return The compiled template, or {@code null} if the source needs to be rendered by liqp.
+   */
+  public static SubstitutionTemplate compile(TemplateParser parser, String source) {
+    if (source.contains("{%")) {
+      return null;
+    }
+
+    List<Object> segments = new ArrayList<>();
+    boolean haveFilters = false;
+    int literalLength = 0;
+    int pos = 0;
+    for (int open; (open = source.indexOf("{{", pos)) != -1;) {
+      int close = source.indexOf("}}", open + 2);
+      if (close == -1) {
+        return null;
+      }
+      String literal = source.substring(pos, open);
+      if (literal.contains("}}")) {
+        return null;
+      }
+      if (!literal.isEmpty()) {
+        segments.add(literal);
+        literalLength += literal.length();
+      }
+
+      Output output = parseOutput(parser, source.substring(open + 2, close));
+      if (output == null) {
+        return null;
+      }
+      haveFilters |= output.filters.length > 0;
+      segments.add(output);
+      pos = close + 2;
+    }
+    String literal = source.substring(pos);
+    if (literal.contains("}}")) {
+      return null;
+    }
+    if (!literal.isEmpty()) {
+      segments.add(literal);
+      literalLength += literal.length();
+    }
+
+    return new SubstitutionTemplate(segments.toArray(), haveFilters ? newFilterContext(parser)
+        : null, literalLength);
+  }
+
+  private static Output parseOutput(TemplateParser parser, String markup) {
+    if (markup.startsWith("-") || markup.endsWith("-") || markup.indexOf('{') != -1) {
+      // whitespace control, or something odd
+      return null;
+    }
+    String[] parts = markup.split("\\|", -1);
+
+    String path = parts[0].trim();
+    if (!PATH.matcher(path).matches()) {
+      return null;
+    }
+    String[] pathElements = path.split("\\.");
+    for (String element : pathElements) {
+      if (RESERVED.contains(element)) {
+        return null;
+      }
+    }
+
+    Filter[] filters = new Filter[parts.length - 1];
+    for (int i = 1; i < parts.length; i++) {
+      String name = parts[i].trim();
+      if (!IDENTIFIER.matcher(name).matches() || !SIMPLE_FILTERS.contains(name)) {
+        return null;
+      }
+      Filter filter = parser.filters.get(name);
+      if (filter == null) {
+        return null;
+      }
+      filters[i - 1] = filter;
+    }
+
+    return new Output(pathElements, filters);
+  }
+
+  /**
+   * Creates a context that is only used as an argument to filters, which need access to the
+   * parser settings.
+   */
+  static TemplateContext newFilterContext(TemplateParser parser) {
+    TemplateContext context = new TemplateContext(parser, new HashMap<>());
+    Consumer<Map<String, Object>> configurator = parser.getEnvironmentMapConfigurator();
+    if (configurator != null) {
+      configurator.accept(context.getEnvironmentMap());
+    }
+    return context;
+  }
+
+  /**
+   * Renders this template.
+   *
+   * @param variables The variables.
+   * @param parent The parent context (e.g., when rendering an include), or {@code null}.
+   * @return The rendered object, or {@code null} if the template must be rendered by liqp instead
+   *         (e.g., because a variable is undefined, or not a simple value).
+   */
+  public Object render(Map<String, Object> variables, TemplateContext parent) {
+    Object[] values = new Object[segments.length];
+    boolean plain = true;
+    for (int i = 0; i < segments.length; i++) {
+      Object segment = segments[i];
+      if (segment instanceof String) {
+        values[i] = segment;
+        continue;
+      }
+      Output output = (Output) segment;
+      Object value = lookup(output.path, variables, parent);
+      if (value == MISSING) {
+        return null;
+      }
+      for (Filter filter : output.filters) {
+        value = filter.apply(value, parent == null ? filterContext : parent, NO_PARAMS);
+      }
+      value = toOutput(value);
+      if (value == MISSING) {
+        return null;
+      }
+      plain &= (value instanceof String);
+      values[i] = value;
+    }
+
+    if (plain) {
+      StringBuilder sb = new StringBuilder(literalLength + 16 * values.length);
+      for (Object value : values) {
+        sb.append((String) value);
+      }
+      return sb.toString();
+    } else {
+      // keep StringHolders (e.g., the "content" of a layout) as they are
+      StringHolderSequence seq = StringHolder.newSequence();
+      for (Object value : values) {
+        seq.append(value);
+      }
+      return seq;
+    }
+  }
+
+  private static Object lookup(String[] path, Map<String, Object> variables,
+      TemplateContext parent) {
+    String name = path[0];
+    Object value = variables.get(name);
+    if (value == null && !variables.containsKey(name)) {
+      if (parent == null || !parent.containsKey(name)) {
+        return MISSING;
+      }
+      value = parent.get(name);
+    }
+
+    for (int i = 1; i < path.length; i++) {
+      if (!(value instanceof Map)) {
+        // nil, or something liqp needs to inspect
+        return MISSING;
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> map = (Map<String, Object>) value;
+      value = map.get(path[i]);
+      if (value == null && !map.containsKey(path[i])) {
+        return MISSING;
+      }
+    }
+    return value;
+  }
+
+  static Object toOutput(Object value) {
+    if (value == null) {
+      return "";
+    } else if (value instanceof String || value instanceof StringHolder) {
+      return value;
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Boolean) {
+      return value.toString();
+    } else {
+      // e.g., floating-point numbers, dates, lists: liqp has its own conventions
+      return MISSING;
+    }
+  }
+}
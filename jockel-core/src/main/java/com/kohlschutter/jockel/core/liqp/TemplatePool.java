@@ -0,0 +1,159 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.liqp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import liqp.Template;
+import liqp.TemplateContext;
+import liqp.TemplateParser;
+
+/**
+ * A pool of parsed {@link Template}s for the same source.
+ *
+ * liqp {@link Template}s keep per-render state, and therefore must not be rendered concurrently.
+ * The pool hands out a template for exclusive use, and parses another copy of the source only when
+ * all pooled templates are in use (i.e., at most once per concurrently rendering thread).
+ *
+ * If template compilation is enabled for the parser, the source is compiled into a
+ * {@link CompiledTemplate} instead, which is rendered concurrently without pooling. Sources that
+ * only consist of literal text and plain output tags are rendered via {@link SubstitutionTemplate}
+ * whenever possible.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class TemplatePool {
+  private final TemplateParser parser;
+  private final String source;
+  private final Queue<Template> templates = new ConcurrentLinkedQueue<>();
+  private final CompiledTemplate compiled;
+  private final SubstitutionTemplate substitution;
+
+  /**
+   * Creates a new {@link TemplatePool}, and parses the first template right away (so parsing errors
+   * are reported to the caller).
+   *
+   * @param parser The parser.
+   * @param source The template source.
+   * @throws RuntimeException if the source cannot be parsed (liqp does not collect parse errors).
+   */
+  public TemplatePool(TemplateParser parser, String source) {
+    this.parser = parser;
+    this.source = source;
+    Template template = parser.parse(source);
+    templates.add(template);
+    this.substitution = SubstitutionTemplate.compile(parser, source);
+    this.compiled = CompiledTemplate.isEnabled(parser) ? CompiledTemplate.compile(parser, template)
+        : null;
+  }
+
+  /**
+   * Returns the parser used by this pool.
+   *
+   * @return The parser.
+   */
+  public TemplateParser getParser() {
+    return parser;
+  }
+
+  /**
+   * Checks if the source has been compiled.
+   *
+   * @return {@code true} if compiled.
+   */
+  public boolean isCompiled() {
+    return compiled != null;
+  }
+
+  /**
+   * Renders the template, using the compiled template if available, or a pooled template
+   * otherwise.
+   *
+   * @param variables The variables.
+   * @param parent The parent context (e.g., when rendering an include), or {@code null}.
+   * @param errors If not {@code null}, receives the errors reported during rendering.
+   * @return The rendered object.
+   */
+  public Object render(Map<String, Object> variables, TemplateContext parent,
+      List<Exception> errors) {
+    if (substitution != null) {
+      Object obj = substitution.render(variables, parent);
+      if (obj != null) {
+        return obj;
+      }
+    }
+    if (compiled != null) {
+      return compiled.render(variables, parent, errors);
+    }
+    Template template = acquire();
+    try {
+      Object obj = template.renderToObjectUnguarded(variables, parent, true);
+      if (errors != null) {
+        errors.addAll(template.errors());
+      }
+      return obj;
+    } finally {
+      release(template);
+    }
+  }
+
+  /**
+   * Renders the template directly to the given {@link Appendable}.
+   *
+   * Compiled templates are written node by node, as the output is produced; otherwise, the output
+   * is appended once it has been rendered completely.
+   *
+   * @param variables The variables.
+   * @param parent The parent context (e.g., when rendering an include), or {@code null}.
+   * @param out The target.
+   * @param errors If not {@code null}, receives the errors reported during rendering.
+   * @throws IOException on error.
+   */
+  public void renderTo(Map<String, Object> variables, TemplateContext parent, Appendable out,
+      List<Exception> errors) throws IOException {
+    if (compiled != null && substitution == null) {
+      compiled.renderTo(variables, parent, out, errors);
+    } else {
+      CompiledTemplate.append(out, render(variables, parent, errors));
+    }
+  }
+
+  /**
+   * Obtains a parsed template for exclusive use by the calling thread. It must be returned via
+   * {@link #release(Template)} after rendering.
+   *
+   * @return The template.
+   */
+  public Template acquire() {
+    Template template = templates.poll();
+    return template == null ? parser.parse(source) : template;
+  }
+
+  /**
+   * Returns a template obtained via {@link #acquire()}.
+   *
+   * @param template The template.
+   */
+  public void release(Template template) {
+    templates.add(template);
+  }
+}
@@ -18,7 +18,13 @@
 package com.kohlschutter.jockel.core.site;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
@@ -26,7 +32,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.kohlschutter.dumbo.util.SuppliedThreadLocal;
+import com.kohlschutter.jockel.core.LiquidVariables;
 
 public final class PermalinkParser {
   private static final Pattern PAT_PERMA_VAR = Pattern.compile(":([a-z_]+)\\b");
@@ -37,8 +43,8 @@ public final class PermalinkParser {
 
   private static final Pattern PAT_ALPHANUM_LOWER = Pattern.compile("[^a-z0-9]+");
 
-  private static final ThreadLocal<SimpleDateFormat> SDF_YMD = SuppliedThreadLocal.of(
-      () -> new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH));
+  private static final DateTimeFormatter DTF_YMD = DateTimeFormatter.ofPattern("yyyy-MM-dd",
+      Locale.ENGLISH);
 
   private static final Map<String, String> STYLES = new HashMap<>();
 
@@ -50,27 +56,32 @@ public final class PermalinkParser {
     STYLES.put("none", "/:categories/:title:output_ext");
   }
 
-  private static final Map<String, SimpleDateFormat> DATE_KEYS = new HashMap<>();
+  private static final Map<String, DateTimeFormatter> DATE_KEYS = new HashMap<>();
 
   static {
-    DATE_KEYS.put("year", new SimpleDateFormat("YYYY", Locale.ENGLISH));
-    DATE_KEYS.put("short_year", new SimpleDateFormat("YY", Locale.ENGLISH));
-    DATE_KEYS.put("month", new SimpleDateFormat("MM", Locale.ENGLISH));
-    DATE_KEYS.put("i_month", new SimpleDateFormat("M", Locale.ENGLISH));
-    DATE_KEYS.put("short_month", new SimpleDateFormat("MMM", Locale.ENGLISH));
-    DATE_KEYS.put("long_month", new SimpleDateFormat("MMMM", Locale.ENGLISH));
-    DATE_KEYS.put("day", new SimpleDateFormat("dd", Locale.ENGLISH));
-    DATE_KEYS.put("i_day", new SimpleDateFormat("d", Locale.ENGLISH));
-    DATE_KEYS.put("y_day", new SimpleDateFormat("D", Locale.ENGLISH));
+    // "yyyy", not "YYYY" (week-based year)
+    putDateKey("year", "yyyy");
+    putDateKey("short_year", "yy");
+    putDateKey("month", "MM");
+    putDateKey("i_month", "M");
+    putDateKey("short_month", "MMM");
+    putDateKey("long_month", "MMMM");
+    putDateKey("day", "dd");
+    putDateKey("i_day", "d");
+    putDateKey("y_day", "D");
     // FIXME add more here
-    DATE_KEYS.put("hour", new SimpleDateFormat("HH", Locale.ENGLISH));
-    DATE_KEYS.put("minute", new SimpleDateFormat("mm", Locale.ENGLISH));
-    DATE_KEYS.put("second", new SimpleDateFormat("ss", Locale.ENGLISH));
+    putDateKey("hour", "HH");
+    putDateKey("minute", "mm");
+    putDateKey("second", "ss");
   }
 
   private PermalinkParser() {
   }
 
+  private static void putDateKey(String key, String pattern) {
+    DATE_KEYS.put(key, DateTimeFormatter.ofPattern(pattern, Locale.ENGLISH));
+  }
+
   @SuppressWarnings({"PMD.NcssCount", "PMD.CognitiveComplexity", "PMD.CyclomaticComplexity"})
   public static String parsePermalink(String permalink, Map<String, Object> pageVariables)
       throws ParseException {
@@ -95,13 +106,19 @@ public final class PermalinkParser {
 
     String filename = (String) pageVariables.get(CustomSiteVariables.DUMBO_FILENAME);
     String filenameSlug;
-    Date date;
+    LocalDateTime date;
 
     if (filename != null) {
       matcher = PAT_DATE_FILENAME.matcher(filename);
       String filenameRest;
       if (matcher.find()) {
-        date = SDF_YMD.get().parse(matcher.group(1));
+        try {
+          date = LocalDate.parse(matcher.group(1), DTF_YMD).atStartOfDay();
+        } catch (DateTimeParseException e) {
+          ParseException pe = new ParseException(e.getMessage(), e.getErrorIndex());
+          pe.initCause(e);
+          throw pe;
+        }
         filenameRest = matcher.group(2);
       } else {
         date = null;
@@ -122,8 +139,10 @@ public final class PermalinkParser {
       filenameSlug = PAT_ALPHANUM_LOWER.matcher(filenameSlug).replaceAll(" ").trim().replace(' ',
           '-').replaceAll("\\-\\-+", "-");
     } else {
+      // e.g., date-based archive pages
       filenameSlug = null;
-      date = null;
+      LocalDate d = toLocalDate(pageVariables.get(LiquidVariables.PAGE_DATE));
+      date = d == null ? null : d.atStartOfDay();
     }
 
     matcher = PAT_PERMA_VAR.matcher(permalink);
@@ -147,10 +166,10 @@ public final class PermalinkParser {
           value = name;
           break;
         default:
-          SimpleDateFormat sdf = DATE_KEYS.get(key);
-          if (sdf != null) {
+          DateTimeFormatter dtf = DATE_KEYS.get(key);
+          if (dtf != null) {
             if (date != null) {
-              value = sdf.format(date);
+              value = dtf.format(date);
             } else {
               throw new IllegalStateException("Date unknown for " + filename
                   + " but permalink needs one: " + permalink);
@@ -179,6 +198,44 @@ public final class PermalinkParser {
     return s;
   }
 
+  /**
+   * Returns the date of a page, as specified by its "date" front matter variable, or by a
+   * "YYYY-MM-DD-" prefix of its filename.
+   *
+   * @param pageVariables The page variables.
+   * @return The date, or {@code null} if unknown.
+   */
+  public static LocalDate getDate(Map<String, Object> pageVariables) {
+    LocalDate date = toLocalDate(pageVariables.get(LiquidVariables.PAGE_DATE));
+    if (date == null) {
+      String filename = (String) pageVariables.get(CustomSiteVariables.DUMBO_FILENAME);
+      if (filename != null) {
+        Matcher matcher = PAT_DATE_FILENAME.matcher(filename);
+        if (matcher.find()) {
+          date = toLocalDate(matcher.group(1));
+        }
+      }
+    }
+    return date;
+  }
+
+  private static LocalDate toLocalDate(Object obj) {
+    try {
+      if (obj instanceof TemporalAccessor) {
+        return LocalDate.from((TemporalAccessor) obj);
+      } else if (obj instanceof Date) {
+        return LocalDate.ofInstant(((Date) obj).toInstant(), ZoneId.systemDefault());
+      } else if (obj != null) {
+        String s = obj.toString().trim();
+        return s.length() < 10 ? null : LocalDate.parse(s.substring(0, 10), DTF_YMD);
+      } else {
+        return null;
+      }
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
   private static String permalinkTitle(Map<String, Object> pageVariables, String filenameSlug) {
     String slug = (String) pageVariables.get("slug");
     if (slug == null) {
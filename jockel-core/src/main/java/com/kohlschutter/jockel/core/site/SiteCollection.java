@@ -29,10 +29,13 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.kohlschutter.annotations.compiletime.SuppressFBWarnings;
+import com.kohlschutter.jockel.core.DependencyTracker;
 import com.kohlschutter.jockel.core.LiquidHelper;
 import com.kohlschutter.jockel.core.LiquidVariables;
+import com.kohlschutter.jockel.core.util.LayeredMap;
 import com.kohlschutter.jockel.core.util.PathReaderSupplier;
 import com.kohlschutter.stringhold.IOExceptionHandler.ExceptionResponse;
 import com.kohlschutter.stringhold.StringHolder;
@@ -50,6 +53,9 @@ public final class SiteCollection implements List<Object> {
   private final Map<String, Object> variables;
   private Integer size; // NOPMD.AvoidFieldNameMatchingMethodName
   private final boolean output;
+  private final String cacheControl;
+  private final Object sortKey;
+  private boolean sorted = false;
 
   SiteCollection(LiquidHelper liquid, Map<String, Object> collectionsConfig, String collectionId,
       Map<String, Object> variables, Iterable<PathReaderSupplier> entries) {
@@ -63,22 +69,63 @@ public final class SiteCollection implements List<Object> {
     Map<String, Object> collectionConfig = (Map<String, Object>) collectionsConfig.get(
         collectionId);
     if (collectionConfig != null) {
-      // sort if necessary
-      sortBy(collectionConfig.get("sort_by"));
+      // sorted upon first access, see #sort
+      this.sortKey = collectionConfig.get("sort_by");
 
       this.output = Boolean.valueOf(String.valueOf(collectionConfig.get("output")));
+
+      Object cc = collectionConfig.get(LiquidVariables.COLLECTION_CACHE_CONTROL);
+      this.cacheControl = cc == null ? null : cc.toString();
     } else {
+      this.sortKey = null;
       this.output = false;
+      this.cacheControl = null;
+    }
+  }
+
+  /**
+   * Sorts the collection by the configured "sort_by" key, unless already done.
+   *
+   * Sorting requires the front matter of all items. It should therefore be done once the front
+   * matter has been parsed in parallel (see {@link #getItems()}), and before pages are rendered.
+   * Otherwise, the collection is sorted upon first access.
+   */
+  public synchronized void sort() {
+    if (!sorted) {
+      sorted = true;
+      sortBy(sortKey);
+    }
+  }
+
+  /**
+   * Returns all items of this collection, without parsing their front matter, and without sorting
+   * the collection. The items may then be accessed concurrently, e.g., to parse their front matter
+   * in parallel.
+   *
+   * @return The items.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized List<Map<String, Object>> getItems() {
+    List<Map<String, Object>> items = new ArrayList<>();
+    int i = 0;
+    for (PathReaderSupplier supp : objectSuppliers) {
+      Object obj = objects != null && i < objects.size() ? objects.get(i) : null;
+      if (obj == null) {
+        obj = updateObject(supp, i);
+      }
+      items.add((Map<String, Object>) obj);
+      i++;
     }
+    return items;
   }
 
-  private void populateObjects() {
+  private synchronized void populateObjects() {
     for (int i = 0, n = size(); i < n; i++) {
       get(i);
     }
   }
 
-  public SiteCollection sortBy(Object key) {
+  public synchronized SiteCollection sortBy(Object key) {
     if (key == null) {
       return this;
     }
@@ -120,102 +167,197 @@ public final class SiteCollection implements List<Object> {
     return this;
   }
 
-  @SuppressWarnings("PMD.CognitiveComplexity")
   private Map<String, Object> loadObject(PathReaderSupplier supp, int index)
       throws FileNotFoundException, IOException {
-    Map<String, Object> map = new HashMap<>();
-    map.put("pin", false);
-    map.put("hidden", false);
-    // map.put("title", null);
-    // map.put("order", null);
-    // map.put("date", null);
-    // map.put("url", null);
-    // map.put("excerpt", null);
-    // map.put("last_modified_at", "2022-01-01"); // FIXME date
-    map.put("previous", null);
-    map.put("next", null);
-    map.put("collection", collectionId);
-    Map<String, Object> itemVariables = new FilterMap<String, Object>(map) {
-
-      boolean parsedFrontMatter = false;
-      Map<String, Object> iv = null;
-
-      @Override
-      public String toString() {
-        return super.toString() + "(FilteredMap site.collection;id=" + collectionId + ")";
-      }
+    return new ItemMap(supp, index);
+  }
 
-      @SuppressFBWarnings("IA_AMBIGUOUS_INVOCATION_OF_INHERITED_OR_OUTER_METHOD") // size()
-      @Override
-      public Object get(Object key) {
-        if (key instanceof CharSequence) {
-          key = key.toString();
-        }
+  /**
+   * A collection item; front matter is parsed upon first access.
+   */
+  private final class ItemMap extends FilterMap<String, Object> {
+    private final PathReaderSupplier supp;
+    private final int index;
+    private boolean parsedFrontMatter = false;
+    private Map<String, Object> iv = null;
+    private int loadCount = 0;
+    // not synchronized: parsing the front matter does I/O, which would pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    ItemMap(PathReaderSupplier supp, int index) {
+      super(new HashMap<>());
+      this.supp = supp;
+      this.index = index;
+      init(index < countItems() - 1);
+    }
 
-        if (index > 0 && "next".equals(key)) {
-          return SiteCollection.this.get(index - 1);
-        } else if (index < size() - 1 && "previous".equals(key)) {
-          return SiteCollection.this.get(index + 1);
-        } else if ("content".equals(key)) {
-          // see StringHolder below
-          return super.get(key);
-        } else {
-          Object obj = super.get(key);
-
-          if (obj != null || (parsedFrontMatter && !super.containsKey(key))) {
-            return obj;
+    private void init(boolean hasPrevious) {
+      Map<String, Object> map = getMap();
+      map.put("pin", false);
+      map.put("hidden", false);
+      // map.put("title", null);
+      // map.put("order", null);
+      // map.put("date", null);
+      // map.put("url", null);
+      // map.put("excerpt", null);
+      // map.put("last_modified_at", "2022-01-01"); // FIXME date
+      map.put("previous", null);
+      map.put("next", null);
+      map.put("collection", collectionId);
+
+      CustomSiteVariables.storePathAndFilename(supp.getRelativePath(), map);
+
+      map.put("content", StringHolder.withSupplier(this::renderContent, (
+          e) -> ExceptionResponse.ILLEGAL_STATE));
+      map.put("excerpt", StringHolder.withSupplier(() -> {
+        return getExcerpt(StringHolder.withContent(get("content")));
+      }));
+
+      if (index > 0) {
+        map.put("next", new Callable<Object>() {
+
+          @Override
+          public Object call() throws Exception {
+            return SiteCollection.this.get(index - 1);
           }
+        });
+      }
+      if (hasPrevious) {
+        map.put("previous", new Callable<Object>() {
 
-          if (!parsedFrontMatter) {
-            parsedFrontMatter = true;
-            try {
-              iv = liquid.parseFrontMatter(supp, null, LiquidVariables.PAGE, () -> map);
-            } catch (IOException e) {
-              e.printStackTrace();
-            }
+          @Override
+          public Object call() throws Exception {
+            return SiteCollection.this.get(index + 1);
           }
+        });
+      }
+    }
+
+    /**
+     * Renders the content of this item.
+     *
+     * Other threads may access this item while it is being rendered, so rendering uses a private
+     * copy of the item's values; the values set while rendering (front matter, URL, etc.) are copied
+     * back afterwards, unless the item has been reloaded in the meantime. Likewise, a fresh layer on
+     * top of the variables is used.
+     */
+    private Object renderContent() throws IOException {
+      Map<String, Object> snapshot;
+      int count;
+      lock.lock();
+      try {
+        snapshot = new HashMap<>(getMap());
+        count = loadCount;
+      } finally {
+        lock.unlock();
+      }
+
+      Map<String, Object> page = new HashMap<>(snapshot);
+      Object content = liquid.prerenderLiquid(supp, new LayeredMap<>(variables),
+          LiquidVariables.PAGE, () -> page);
 
-          if (iv != null) {
-            obj = iv.get(key);
-            if (key instanceof String) {
-              super.put((String) key, obj);
+      lock.lock();
+      try {
+        if (count == loadCount) {
+          for (Map.Entry<String, Object> en : page.entrySet()) {
+            if (en.getValue() != snapshot.get(en.getKey())) { // NOPMD.CompareObjectsWithEquals
+              super.put(en.getKey(), en.getValue());
             }
           }
-
-          return obj;
         }
+      } finally {
+        lock.unlock();
+      }
+      return content;
+    }
 
+    /**
+     * Discards all cached values, so the item is re-read from its source upon next access.
+     */
+    void reload() {
+      // determined before locking; see #get(Object)
+      boolean hasPrevious = index < countItems() - 1;
+      lock.lock();
+      try {
+        getMap().clear();
+        parsedFrontMatter = false;
+        iv = null;
+        loadCount++;
+        init(hasPrevious);
+      } finally {
+        lock.unlock();
       }
-    };
+    }
 
-    CustomSiteVariables.storePathAndFilename(supp.getRelativePath(), map);
+    @Override
+    public String toString() {
+      return super.toString() + "(FilteredMap site.collection;id=" + collectionId + ")";
+    }
 
-    map.put("content", StringHolder.withSupplier(() -> liquid.prerenderLiquid(supp, variables,
-        LiquidVariables.PAGE, () -> map), (e) -> ExceptionResponse.ILLEGAL_STATE));
-    map.put("excerpt", StringHolder.withSupplier(() -> {
-      return getExcerpt(StringHolder.withContent(map.get("content")));
-    }));
+    @Override
+    public Object put(String key, Object value) {
+      lock.lock();
+      try {
+        return super.put(key, value);
+      } finally {
+        lock.unlock();
+      }
+    }
 
-    if (index > 0) {
-      itemVariables.put("next", new Callable<Object>() {
+    @Override
+    public Object get(Object key) {
+      if (key instanceof CharSequence) {
+        key = key.toString();
+      }
+      DependencyTracker.record(supp.getRelativePath());
+
+      // resolved without holding our lock: the collection's monitor must never be acquired while
+      // holding the lock of an item (sorting the collection holds the monitor, and reads items)
+      if ("next".equals(key) && index > 0) {
+        return SiteCollection.this.get(index - 1);
+      } else if ("previous".equals(key) && index < countItems() - 1) {
+        return SiteCollection.this.get(index + 1);
+      }
 
-        @Override
-        public Object call() throws Exception {
-          return get(index - 1);
-        }
-      });
+      lock.lock();
+      try {
+        return getLocked(key);
+      } finally {
+        lock.unlock();
+      }
     }
-    if (index < size() - 1) {
-      itemVariables.put("previous", new Callable<Object>() {
 
-        @Override
-        public Object call() throws Exception {
-          return get(index + 1);
+    @SuppressWarnings("PMD.CognitiveComplexity")
+    private Object getLocked(Object key) {
+      if ("content".equals(key)) {
+        // see StringHolder above
+        return super.get(key);
+      } else {
+        Object obj = super.get(key);
+
+        if (obj != null || (parsedFrontMatter && !super.containsKey(key))) {
+          return obj;
+        }
+
+        if (!parsedFrontMatter) {
+          parsedFrontMatter = true;
+          try {
+            iv = liquid.parseFrontMatter(supp, null, LiquidVariables.PAGE, this::getMap);
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+
+        if (iv != null) {
+          obj = iv.get(key);
+          if (key instanceof String) {
+            super.put((String) key, obj);
+          }
         }
-      });
-    }
 
-    return itemVariables;
+        return obj;
+      }
+    }
   }
 
   private StringHolder getExcerpt(StringHolder content) {
@@ -228,7 +370,7 @@ public final class SiteCollection implements List<Object> {
     }
   }
 
-  private Object updateObject(PathReaderSupplier supp, int index) {
+  private synchronized Object updateObject(PathReaderSupplier supp, int index) {
     Object obj;
     try {
       obj = loadObject(supp, index);
@@ -251,8 +393,67 @@ public final class SiteCollection implements List<Object> {
     return obj;
   }
 
+  /**
+   * Discards the cached values of the collection item with the given relative path (or all items
+   * within the given directory), so they are re-read from their source upon next access.
+   *
+   * @param relativePath The relative path of the item or directory (relative to "markdown/").
+   * @return The number of invalidated items.
+   */
+  public int invalidate(String relativePath) {
+    String dirPrefix = relativePath.endsWith("/") ? relativePath : relativePath + "/";
+    List<ItemMap> items = new ArrayList<>();
+    synchronized (this) {
+      if (objects == null) {
+        return 0;
+      }
+      for (Object obj : objects) {
+        if (obj instanceof ItemMap) {
+          String path = ((ItemMap) obj).supp.getRelativePath();
+          if (relativePath.equals(path) || path.startsWith(dirPrefix)) {
+            items.add((ItemMap) obj);
+          }
+        }
+      }
+    }
+    for (ItemMap item : items) {
+      item.reload();
+    }
+    if (!items.isEmpty()) {
+      synchronized (this) {
+        // the sort key may have changed
+        sorted = false;
+      }
+    }
+    return items.size();
+  }
+
+  /**
+   * Records a dependency on the entire collection (all items, and their order), e.g., when the
+   * collection is iterated.
+   */
+  private void recordDependency() {
+    DependencyTracker.record("_" + collectionId);
+  }
+
+  /**
+   * Returns the dependency that denotes the order of the items in this collection (but not their
+   * contents), e.g., for "next" and "previous".
+   *
+   * Without "sort_by", the order is determined by the names of the files in the collection
+   * directory, denoted by the directory path with a trailing slash (e.g., "_posts/"). Otherwise, the
+   * order depends on the front matter of all items, i.e., on the entire collection.
+   *
+   * @return The dependency.
+   */
+  public String getOrderDependency() {
+    return sortKey == null ? "_" + collectionId + "/" : "_" + collectionId;
+  }
+
   @Override
   public Iterator<Object> iterator() {
+    recordDependency();
+    sort();
     final Iterator<PathReaderSupplier> it = objectSuppliers.iterator();
     return new Iterator<Object>() {
       int index = 0;
@@ -266,20 +467,25 @@ public final class SiteCollection implements List<Object> {
       public Object next() {
         int i = index++;
         PathReaderSupplier supp = it.next();
-        if (objects != null && i < objects.size()) {
-          Object obj = get(i);
-          if (obj != null) {
-            return obj;
+        synchronized (SiteCollection.this) {
+          if (objects != null && i < objects.size()) {
+            Object obj = get(i);
+            if (obj != null) {
+              return obj;
+            }
           }
-        }
 
-        return updateObject(supp, i);
+          return updateObject(supp, i);
+        }
       }
     };
   }
 
   @Override
-  public Object get(int index) {
+  public synchronized Object get(int index) {
+    // the item itself records a dependency upon access
+    DependencyTracker.record(getOrderDependency());
+    sort();
     if (objects != null && index < objects.size()) {
       Object obj = objects.get(index);
       if (obj != null) {
@@ -307,7 +513,12 @@ public final class SiteCollection implements List<Object> {
   }
 
   @Override
-  public int size() {
+  public synchronized int size() {
+    recordDependency();
+    return countItems();
+  }
+
+  private synchronized int countItems() {
     if (size != null) {
       return size;
     }
@@ -431,4 +642,14 @@ public final class SiteCollection implements List<Object> {
   public boolean isOutput() {
     return output;
   }
+
+  /**
+   * Returns the value of the "Cache-Control" header for pages of this collection, as configured via
+   * "cache_control" in the collection's configuration.
+   *
+   * @return The header value, or {@code null} if not configured.
+   */
+  public String getCacheControl() {
+    return cacheControl;
+  }
 }
\ No newline at end of file
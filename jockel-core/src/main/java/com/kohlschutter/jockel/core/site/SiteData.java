@@ -23,10 +23,13 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.snakeyaml.engine.v2.api.Load;
 
 import com.kohlschutter.dumbo.ServerApp;
+import com.kohlschutter.jockel.core.DependencyTracker;
 import com.kohlschutter.jockel.core.YAMLSupport;
 
 /**
@@ -36,8 +39,16 @@ import com.kohlschutter.jockel.core.YAMLSupport;
  */
 public class SiteData extends FilterMap.ReadOnlyFilterMap<String, Object> {
   private static final Object NOT_FOUND = new Object();
+
+  /**
+   * The supported data file extensions, in order of precedence (JSON is parsed as YAML).
+   */
+  public static final List<String> DATA_FILE_EXTENSIONS = List.of(".yml", ".yaml", ".json");
+  private static final String MARKDOWN_PREFIX = "markdown/";
   private final ServerApp app;
   private final String base;
+  // not synchronized: loading does I/O, which would pin virtual threads on Java 21
+  private final ReentrantLock lock = new ReentrantLock();
 
   SiteData(ServerApp app, String base) {
     super(new HashMap<>());
@@ -45,6 +56,18 @@ public class SiteData extends FilterMap.ReadOnlyFilterMap<String, Object> {
     this.base = base;
   }
 
+  /**
+   * Discards all cached data, so it is re-read upon next access.
+   */
+  public void invalidate() {
+    lock.lock();
+    try {
+      getMap().clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public boolean containsKey(Object key) {
     return get(key) != null;
@@ -55,10 +78,22 @@ public class SiteData extends FilterMap.ReadOnlyFilterMap<String, Object> {
     throw new UnsupportedOperationException();
   }
 
-  @SuppressWarnings("PMD.UseTryWithResources")
   @Override
   public Object get(Object k) {
-    String key = k.toString();
+    lock.lock();
+    try {
+      return getLocked(k.toString());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @SuppressWarnings("PMD.UseTryWithResources")
+  private Object getLocked(String key) {
+    String path = base + "/" + key;
+    DependencyTracker.record(path.startsWith(MARKDOWN_PREFIX) ? path.substring(MARKDOWN_PREFIX
+        .length()) : path);
+
     Object value = getMap().get(key);
     if (value != null) {
       if (value == NOT_FOUND) {
@@ -67,7 +102,6 @@ public class SiteData extends FilterMap.ReadOnlyFilterMap<String, Object> {
       return value;
     }
 
-    String path = base + "/" + key;
     if (path.contains("..")) {
       // throw new IllegalArgumentException();
       getMap().put(key, NOT_FOUND);
@@ -81,38 +115,39 @@ public class SiteData extends FilterMap.ReadOnlyFilterMap<String, Object> {
       return value;
     }
 
-    String ymlPath = path + ".yml";
-    url = app.getResource(ymlPath);
-    if (url != null) {
-      InputStream in;
-      try {
-        in = url.openStream();
-      } catch (IOException e) {
-        e.printStackTrace();
-        in = null;
-      }
-      if (in == null) {
-        getMap().put(key, NOT_FOUND);
-        return null;
-      }
-      try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
-        Object obj = new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadFromReader(reader);
-        if (obj == null) {
+    for (String extension : DATA_FILE_EXTENSIONS) {
+      url = app.getResource(path + extension);
+      if (url != null) {
+        InputStream in;
+        try {
+          in = url.openStream();
+        } catch (IOException e) {
+          e.printStackTrace();
+          in = null;
+        }
+        if (in == null) {
           getMap().put(key, NOT_FOUND);
           return null;
         }
-        getMap().put(key, obj);
+        try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+          Object obj = new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadFromReader(reader);
+          if (obj == null) {
+            getMap().put(key, NOT_FOUND);
+            return null;
+          }
+          getMap().put(key, obj);
 
-        return obj;
-      } catch (IOException e) {
-        e.printStackTrace();
-        getMap().put(key, NOT_FOUND);
-        return null;
-      } finally {
-        try {
-          in.close();
+          return obj;
         } catch (IOException e) {
           e.printStackTrace();
+          getMap().put(key, NOT_FOUND);
+          return null;
+        } finally {
+          try {
+            in.close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
         }
       }
     }
@@ -30,12 +30,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.snakeyaml.engine.v2.api.Load;
 
 import com.kohlschutter.dumbo.ServerApp;
+import com.kohlschutter.jockel.core.DependencyTracker;
 import com.kohlschutter.jockel.core.LiquidHelper;
 import com.kohlschutter.jockel.core.LiquidVariables;
 import com.kohlschutter.jockel.core.YAMLSupport;
@@ -47,34 +52,44 @@ import com.kohlschutter.jockel.core.util.PathReaderSupplier;
  * @author Christian Kohlschütter
  */
 public final class SiteObject extends FilterMap.ReadOnlyFilterMap<String, Object> {
+  private static final Logger LOG = LoggerFactory.getLogger(SiteObject.class);
   private static final int MAX_PATH_DEPTH = 64;
 
   private final ServerApp app;
   private final LiquidHelper liquid;
+  private final AtomicLong generation = new AtomicLong();
+  private volatile Map<String, Object> config;
 
   private SiteObject(ServerApp app, LiquidHelper liquid) {
-    super(new HashMap<>());
+    super(new ConcurrentHashMap<>());
     this.app = app;
     this.liquid = liquid;
 
-    Map<String, Object> map = getMap();
+    Map<String, Object> map = loadConfig();
+    this.config = toConfigValues(map);
+    getMap().putAll(map);
+  }
+
+  private Map<String, Object> loadConfig() {
+    Map<String, Object> map = new HashMap<>();
 
     // Load default config
     URL defaultConfigYml = getClass().getResource("defaultConfig.yml");
     if (defaultConfigYml == null) {
       throw new IllegalStateException("defaultConfig.yml not found");
     }
-    mergeConfig(defaultConfigYml);
+    mergeConfig(map, defaultConfigYml);
 
     // Load site-specific config
     URL configYml = app.getResource("markdown/_config.yml");
     if (configYml != null) {
-      mergeConfig(configYml);
+      mergeConfig(map, configYml);
     } else {
       System.out.println("Not found: markdown/_config.yml");
     }
 
     map.put(LiquidVariables.SITE_DATA, new SiteData(app, "markdown/_data"));
+    return map;
   }
 
   public static SiteObject addTo(ServerApp app, LiquidHelper liquid,
@@ -109,8 +124,7 @@ public final class SiteObject extends FilterMap.ReadOnlyFilterMap<String, Object
     return target;
   }
 
-  private void mergeConfig(URL configYml) {
-    Map<String, Object> map = getMap();
+  private static void mergeConfig(Map<String, Object> map, URL configYml) {
     try {
       Object config = new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadFromReader(
           new InputStreamReader(configYml.openStream(), StandardCharsets.UTF_8));
@@ -127,12 +141,10 @@ public final class SiteObject extends FilterMap.ReadOnlyFilterMap<String, Object
   }
 
   private void init() {
-    initCollections();
+    initCollections(getMap());
   }
 
-  private void initCollections() {
-    Map<String, Object> map = getMap();
-
+  private void initCollections(Map<String, Object> map) {
     @SuppressWarnings("unchecked")
     final Map<String, Object> collectionsConfig = (Map<String, Object>) map.get(
         LiquidVariables.SITE_COLLECTIONS);
@@ -143,6 +155,79 @@ public final class SiteObject extends FilterMap.ReadOnlyFilterMap<String, Object
     }
   }
 
+  /**
+   * Re-reads the site configuration, discarding all data and collection objects.
+   *
+   * Site-wide values that are computed during site generation (e.g., tags and categories) need to
+   * be re-initialized by the caller.
+   */
+  public void reloadConfig() {
+    Map<String, Object> newConfig = loadConfig();
+    Map<String, Object> configValues = toConfigValues(newConfig);
+    initCollections(newConfig);
+
+    Map<String, Object> map = getMap();
+    map.keySet().retainAll(newConfig.keySet());
+    map.putAll(newConfig);
+    this.config = configValues;
+
+    nextGeneration();
+  }
+
+  /**
+   * Returns those values of the site object that stem from the site configuration only, i.e., not
+   * data, collections, tags and categories.
+   *
+   * The returned map is never modified; a new map is returned after the configuration has been
+   * reloaded, so callers can use identity comparison to detect configuration changes.
+   *
+   * @return The (unmodifiable) configuration values.
+   */
+  public Map<String, Object> getConfig() {
+    return config;
+  }
+
+  private static Map<String, Object> toConfigValues(Map<String, Object> map) {
+    Map<String, Object> values = new HashMap<>(map);
+    values.remove(LiquidVariables.SITE_DATA);
+    values.remove(LiquidVariables.SITE_TAGS);
+    values.remove(LiquidVariables.SITE_CATEGORIES);
+    Object collections = map.get(LiquidVariables.SITE_COLLECTIONS);
+    if (collections instanceof Map) {
+      values.keySet().removeAll(((Map<?, ?>) collections).keySet());
+    }
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Returns the current generation of the site, which is incremented whenever a site resource
+   * (configuration, layout, include, data, collection item) has changed.
+   *
+   * @return The generation.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Increments the site generation.
+   *
+   * @return The new generation.
+   * @see #getGeneration()
+   */
+  public long nextGeneration() {
+    return generation.incrementAndGet();
+  }
+
+  /**
+   * Returns the "site.data" object.
+   *
+   * @return The data object.
+   */
+  public SiteData getData() {
+    return (SiteData) getMap().get(LiquidVariables.SITE_DATA);
+  }
+
   private static List<PathReaderSupplier> getCollection(ServerApp app, String collectionId) {
     String rootUriPrefix;
     try {
@@ -180,6 +265,58 @@ public final class SiteObject extends FilterMap.ReadOnlyFilterMap<String, Object
     }
   }
 
+  @Override
+  public Object get(Object key) {
+    if (LiquidVariables.SITE_TAGS.equals(key) || LiquidVariables.SITE_CATEGORIES.equals(key)) {
+      // tags and categories are collected from the front matter of all collection items
+      Object collections = getMap().get(LiquidVariables.SITE_COLLECTIONS);
+      if (collections instanceof Map) {
+        for (Object collectionId : ((Map<?, ?>) collections).keySet()) {
+          DependencyTracker.record("_" + collectionId);
+        }
+      }
+    }
+    return super.get(key);
+  }
+
+  /**
+   * Returns a jockel-specific setting (from the "jockel" section of the site config).
+   *
+   * @param key The setting key.
+   * @return The setting value, or {@code null} if not set.
+   */
+  public Object getJockelSetting(String key) {
+    Object jockel = getMap().get(LiquidVariables.JOCKEL);
+    if (!(jockel instanceof Map)) {
+      return null;
+    }
+    return ((Map<?, ?>) jockel).get(key);
+  }
+
+  public int getJockelSetting(String key, int defaultValue) {
+    Object v = getJockelSetting(key);
+    if (v instanceof Number) {
+      return ((Number) v).intValue();
+    } else if (v != null) {
+      try {
+        return Integer.parseInt(v.toString().trim());
+      } catch (NumberFormatException e) {
+        LOG.warn("Illegal value for jockel.{}: {}", key, v);
+      }
+    }
+    return defaultValue;
+  }
+
+  public boolean getJockelSetting(String key, boolean defaultValue) {
+    Object v = getJockelSetting(key);
+    if (v instanceof Boolean) {
+      return (Boolean) v;
+    } else if (v != null) {
+      return Boolean.parseBoolean(v.toString().trim());
+    }
+    return defaultValue;
+  }
+
   public void initCategoriesAndTags(
       Map<String, Map<String, Map<String, Collection<Object>>>> archives) {
     Map<String, Object> siteMap = getMap();
@@ -0,0 +1,108 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.util;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * An {@link Appendable} that flushes a target (e.g., a servlet response writer) whenever a given
+ * number of characters has been written, so the client can receive the output while it is still
+ * being produced.
+ *
+ * Large {@link CharSequence}s are written in chunks, so at most about {@code flushSize} characters
+ * are pending between two flushes.
+ *
+ * @author Christian Kohlschütter
+ */
+public final class FlushingAppendable implements Appendable, Flushable {
+  private final Appendable out;
+  private final Flushable flushable;
+  private final int flushSize;
+  private int pending = 0;
+
+  /**
+   * Creates a new {@link FlushingAppendable}.
+   *
+   * @param out The target to append to.
+   * @param flushable The target to flush (may be {@code null} to not flush).
+   * @param flushSize The number of characters after which to flush.
+   */
+  public FlushingAppendable(Appendable out, Flushable flushable, int flushSize) {
+    if (flushSize <= 0) {
+      throw new IllegalArgumentException("flushSize");
+    }
+    this.out = out;
+    this.flushable = flushable;
+    this.flushSize = flushSize;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) throws IOException {
+    if (csq == null) {
+      csq = "null";
+    }
+    return append(csq, 0, csq.length());
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) throws IOException {
+    if (csq == null) {
+      csq = "null";
+    }
+    int pos = start;
+    while (pos < end) {
+      int n = Math.min(end - pos, flushSize - pending);
+      out.append(csq, pos, pos + n);
+      pos += n;
+      written(n);
+    }
+    return this;
+  }
+
+  @Override
+  public Appendable append(char c) throws IOException {
+    out.append(c);
+    written(1);
+    return this;
+  }
+
+  private void written(int n) throws IOException {
+    pending += n;
+    if (pending >= flushSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Flushes any pending output right away, e.g., before something expensive is going to be
+   * rendered.
+   *
+   * @throws IOException on error.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (pending == 0) {
+      return;
+    }
+    pending = 0;
+    if (flushable != null) {
+      flushable.flush();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@link Map} that is layered on top of a parent map, without copying it.
+ *
+ * Reads fall through to the parent unless the key has been set or removed in this layer. Writes
+ * only ever modify this layer; the parent is never modified, and can therefore be shared among
+ * concurrent renders, as long as it is not modified itself.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ * @author Christian Kohlschütter
+ */
+public final class LayeredMap<K, V> extends AbstractMap<K, V> {
+  private final Map<K, V> parent;
+  private final Map<K, V> overlay;
+  private Set<Object> removed;
+
+  /**
+   * Creates a new {@link LayeredMap}.
+   *
+   * @param parent The parent map; must not be modified while this map is in use.
+   */
+  public LayeredMap(Map<K, V> parent) {
+    this.parent = parent;
+    this.overlay = new HashMap<>();
+  }
+
+  private boolean isRemoved(Object key) {
+    return removed != null && removed.contains(key);
+  }
+
+  @Override
+  public V get(Object key) {
+    V v = overlay.get(key);
+    if (v != null || overlay.containsKey(key) || isRemoved(key)) {
+      return v;
+    }
+    return parent.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    if (overlay.containsKey(key)) {
+      return true;
+    }
+    return !isRemoved(key) && parent.containsKey(key);
+  }
+
+  @Override
+  public V put(K key, V value) {
+    V previous = get(key);
+    if (removed != null) {
+      removed.remove(key);
+    }
+    overlay.put(key, value);
+    return previous;
+  }
+
+  @Override
+  public V remove(Object key) {
+    V previous = get(key);
+    overlay.remove(key);
+    if (parent.containsKey(key)) {
+      if (removed == null) {
+        removed = new HashSet<>();
+      }
+      removed.add(key);
+    }
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    overlay.clear();
+    if (removed == null) {
+      removed = new HashSet<>();
+    }
+    removed.addAll(parent.keySet());
+  }
+
+  @Override
+  public int size() {
+    int size = overlay.size();
+    for (K key : parent.keySet()) {
+      if (!overlay.containsKey(key) && !isRemoved(key)) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return LayeredMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * Iterates over the entries of this layer, followed by the (visible) entries of the parent.
+   */
+  private final class EntryIterator implements Iterator<Entry<K, V>> {
+    private final Iterator<Entry<K, V>> overlayIt = overlay.entrySet().iterator();
+    private final Iterator<Entry<K, V>> parentIt = parent.entrySet().iterator();
+    private Entry<K, V> nextFromParent;
+    private K lastKey;
+    private boolean hasLast;
+    private boolean lastFromOverlay;
+
+    @Override
+    public boolean hasNext() {
+      if (overlayIt.hasNext() || nextFromParent != null) {
+        return true;
+      }
+      while (parentIt.hasNext()) {
+        Entry<K, V> en = parentIt.next();
+        K key = en.getKey();
+        if (!overlay.containsKey(key) && !isRemoved(key)) {
+          nextFromParent = new SimpleImmutableEntry<>(en);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      Entry<K, V> en;
+      if (overlayIt.hasNext()) {
+        en = overlayIt.next();
+        lastFromOverlay = true;
+      } else if (hasNext()) {
+        en = nextFromParent;
+        nextFromParent = null;
+        lastFromOverlay = false;
+      } else {
+        throw new NoSuchElementException();
+      }
+      lastKey = en.getKey();
+      hasLast = true;
+      return en;
+    }
+
+    @Override
+    public void remove() {
+      if (!hasLast) {
+        throw new IllegalStateException();
+      }
+      hasLast = false;
+      if (lastFromOverlay) {
+        overlayIt.remove();
+      }
+      if (parent.containsKey(lastKey)) {
+        if (removed == null) {
+          removed = new HashSet<>();
+        }
+        removed.add(lastKey);
+      }
+    }
+  }
+}
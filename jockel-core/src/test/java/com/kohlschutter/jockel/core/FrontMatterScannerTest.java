@@ -0,0 +1,159 @@
+/*
+ * jockel
+ *
+ * Copyright 2024 Christian Kohlschütter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kohlschutter.jockel.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.snakeyaml.engine.v2.api.Load;
+
+/**
+ * Checks that {@link FrontMatterScanner} produces the same front matter as snakeyaml-engine with
+ * {@link YAMLSupport#DEFAULT_LOAD_SETTINGS}, and that it gives up on anything it cannot handle.
+ *
+ * @author Christian Kohlschütter
+ */
+public class FrontMatterScannerTest {
+  /**
+   * Front matter within the supported subset.
+   */
+  private static final String[] SCANNED = {
+      "", //
+      "title: Hello World", //
+      "layout: post\ntitle: Hello\ncategories: news", //
+      "title: \"Quoted: with colon # and hash\"", //
+      "title: 'single-quoted \"text\"'", //
+      "title: \"\"", //
+      "title: ''", //
+      "tags: [a, b, c]", //
+      "tags: []", //
+      "tags: [ 1, two, true, null, -3 ]", //
+      "tags: [hello world, foo-bar]", //
+      "date: 2024-05-01 12:00:00 +0000", //
+      "date: 2024-05-01", //
+      "count: 42", //
+      "negative: -7", //
+      "zero: 0", //
+      "leadingZero: 012", //
+      "long: 12345678901", //
+      "huge: 123456789012345678901234567890", //
+      "flag: true\nother: false", //
+      "capitalized: True", //
+      "yes: yes", //
+      "empty:", //
+      "blank: ", //
+      "nullValue: null", //
+      "url: https://example.com/a?b=c", //
+      "permalink: /blog/:year/:month/:title/", //
+      "ratio: a:b", //
+      "# a comment\ntitle: x", //
+      "layout: post\n\nauthor: me", //
+      "title: x\ntitle: y", //
+      "title: x\nother: 1\ntitle: y", //
+      "title: ünïcödé ✓", //
+      "snake_case.and-dots: value", //
+      "trailing: spaces   ", //
+      "version: 1.0.0", //
+      "version: v1", //
+  };
+
+  /**
+   * Front matter that requires snakeyaml.
+   */
+  private static final String[] NOT_SCANNED = {
+      "nested:\n  a: b", //
+      "list:\n  - a\n  - b", //
+      "description: >\n  folded\n  text", //
+      "description: |\n  literal", //
+      "- title: x", //
+      "title: a # comment", //
+      "title: 'it''s'", //
+      "title: \"escaped \\\" quote\"", //
+      "float: 1.5", //
+      "exp: 1e3", //
+      "inf: .inf", //
+      "nan: .nan", //
+      "tilde: ~", //
+      "anchor: &a x", //
+      "alias: *a", //
+      "tag: !!str 42", //
+      "tags: [a, [b]]", //
+      "tags: [a, {b: c}]", //
+      "tags: [a,]", //
+      "tags: [\"a\", b]", //
+      "map: {a: b}", //
+      "key with space: x", //
+      "\"quoted key\": x", //
+      "title:\tx", //
+      "title: x\n\t", //
+      "emoji: 😀", //
+      "dash: -", //
+      "question: ?x", //
+      "colon: a: b", //
+      "trailing: a:", //
+      "true: x", //
+      "1: x", //
+  };
+
+  private static List<String> lines(String frontMatter) {
+    return frontMatter.isEmpty() ? new ArrayList<>() : Arrays.asList(frontMatter.split("\n", -1));
+  }
+
+  /**
+   * Parses the front matter like {@link LiquidHelper} does when the scanner gives up.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> loadWithSnakeyaml(String frontMatter) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (Object o : new Load(YAMLSupport.DEFAULT_LOAD_SETTINGS).loadAllFromString("---\n"
+        + frontMatter + "\n")) {
+      if (o instanceof Map) {
+        map.putAll((Map<String, Object>) o);
+      }
+    }
+    return map;
+  }
+
+  @Test
+  public void testScannedLikeSnakeyaml() {
+    for (String frontMatter : SCANNED) {
+      Map<String, Object> scanned = FrontMatterScanner.scan(lines(frontMatter));
+      assertNotNull(scanned, frontMatter);
+
+      Map<String, Object> expected = loadWithSnakeyaml(frontMatter);
+      // also compares key order and number types (e.g., Integer vs. Long)
+      assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(scanned.entrySet()),
+          frontMatter);
+    }
+  }
+
+  @Test
+  public void testNotScanned() {
+    for (String frontMatter : NOT_SCANNED) {
+      assertNull(FrontMatterScanner.scan(lines(frontMatter)), frontMatter);
+    }
+  }
+}